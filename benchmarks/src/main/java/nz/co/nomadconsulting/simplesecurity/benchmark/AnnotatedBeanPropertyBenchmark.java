@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.benchmark;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import nz.co.nomadconsulting.simplesecurity.util.AnnotatedBeanProperty;
+import nz.co.nomadconsulting.simplesecurity.util.Reflections;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Compares {@link AnnotatedBeanProperty} access, which uses a field or methods made accessible once up front, with the reflective
+ * {@link Reflections} path it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnnotatedBeanPropertyBenchmark {
+
+    private final User user = new User();
+
+    private AnnotatedBeanProperty<FieldProperty> fieldProperty;
+
+    private AnnotatedBeanProperty<MethodProperty> methodProperty;
+
+    private Field field;
+
+    private Method getter;
+
+    private Method setter;
+
+
+    @Setup
+    public void setup() throws Exception {
+        fieldProperty = new AnnotatedBeanProperty<>(User.class, FieldProperty.class);
+        methodProperty = new AnnotatedBeanProperty<>(User.class, MethodProperty.class);
+        field = User.class.getDeclaredField("username");
+        getter = User.class.getMethod("getEmail");
+        setter = User.class.getMethod("setEmail", String.class);
+        user.username = "craig";
+        user.email = "craig@example.com";
+    }
+
+
+    @Benchmark
+    public Object fieldGetProperty() {
+        return fieldProperty.getValue(user);
+    }
+
+
+    @Benchmark
+    public Object fieldGetReflective() {
+        return Reflections.getAndWrap(field, user);
+    }
+
+
+    @Benchmark
+    public void fieldSetProperty() {
+        fieldProperty.setValue(user, "craig");
+    }
+
+
+    @Benchmark
+    public void fieldSetReflective() {
+        Reflections.setAndWrap(field, user, "craig");
+    }
+
+
+    @Benchmark
+    public Object methodGetProperty() {
+        return methodProperty.getValue(user);
+    }
+
+
+    @Benchmark
+    public Object methodGetReflective() {
+        return Reflections.invokeAndWrap(getter, user);
+    }
+
+
+    @Benchmark
+    public void methodSetProperty() {
+        methodProperty.setValue(user, "craig@example.com");
+    }
+
+
+    @Benchmark
+    public void methodSetReflective() {
+        Reflections.invokeAndWrap(setter, user, "craig@example.com");
+    }
+
+
+    @Target(FIELD)
+    @Retention(RUNTIME)
+    public @interface FieldProperty {
+
+    }
+
+    @Target(METHOD)
+    @Retention(RUNTIME)
+    public @interface MethodProperty {
+
+    }
+
+    public static class User {
+        @FieldProperty
+        private String username;
+
+        private String email;
+
+
+        @MethodProperty
+        public String getEmail() {
+            return email;
+        }
+
+
+        public void setEmail(final String email) {
+            this.email = email;
+        }
+    }
+}
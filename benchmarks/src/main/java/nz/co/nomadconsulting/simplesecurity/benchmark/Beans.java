@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.benchmark;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Iterator;
+
+import javax.enterprise.event.Event;
+import javax.enterprise.inject.Instance;
+import javax.enterprise.util.TypeLiteral;
+
+
+/**
+ * Wires library beans by hand so that benchmarks measure the code under test rather than a CDI container.
+ */
+final class Beans {
+
+    private Beans() {
+    }
+
+
+    /**
+     * Sets a field, typically one marked with @Inject, on the target or one of its superclasses.
+     */
+    static <T> T inject(final T target, final String name, final Object value) {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return target;
+            }
+            catch (final NoSuchFieldException e) {
+                // try the superclass
+            }
+            catch (final IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " on " + target.getClass());
+    }
+
+
+    static <T> Instance<T> instance(final T value) {
+        return new Instance<T>() {
+
+            @Override
+            public T get() {
+                return value;
+            }
+
+
+            @Override
+            public Iterator<T> iterator() {
+                return Collections.singleton(value).iterator();
+            }
+
+
+            @Override
+            public Instance<T> select(final Annotation... qualifiers) {
+                return this;
+            }
+
+
+            @Override
+            public <U extends T> Instance<U> select(final Class<U> subtype, final Annotation... qualifiers) {
+                throw new UnsupportedOperationException();
+            }
+
+
+            @Override
+            public <U extends T> Instance<U> select(final TypeLiteral<U> subtype, final Annotation... qualifiers) {
+                throw new UnsupportedOperationException();
+            }
+
+
+            @Override
+            public boolean isUnsatisfied() {
+                return false;
+            }
+
+
+            @Override
+            public boolean isAmbiguous() {
+                return false;
+            }
+
+
+            @Override
+            public void destroy(final T instance) {
+            }
+        };
+    }
+
+
+    /**
+     * @return an event with no observers
+     */
+    static <T> Event<T> event() {
+        return new Event<T>() {
+
+            @Override
+            public void fire(final T event) {
+            }
+
+
+            @Override
+            public Event<T> select(final Annotation... qualifiers) {
+                return this;
+            }
+
+
+            @Override
+            public <U extends T> Event<U> select(final Class<U> subtype, final Annotation... qualifiers) {
+                return event();
+            }
+
+
+            @Override
+            public <U extends T> Event<U> select(final TypeLiteral<U> subtype, final Annotation... qualifiers) {
+                return event();
+            }
+        };
+    }
+
+
+    /**
+     * @return an implementation of the interface whose methods do nothing and return null, false or zero
+     */
+    static <T> T stub(final Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                final Class<?> returnType = method.getReturnType();
+                if (returnType.isPrimitive() && returnType != void.class) {
+                    return Array.get(Array.newInstance(returnType, 1), 0);
+                }
+                return null;
+            }
+        }));
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.benchmark;
+
+import nz.co.nomadconsulting.simplesecurity.authorisation.RoleName;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+
+@Entity
+public class BenchmarkRole {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @RoleName
+    private String name;
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.benchmark;
+
+import nz.co.nomadconsulting.simplesecurity.idm.PasswordHash;
+import nz.co.nomadconsulting.simplesecurity.idm.PasswordSalt;
+import nz.co.nomadconsulting.simplesecurity.idm.Roles;
+import nz.co.nomadconsulting.simplesecurity.idm.UserEnabled;
+import nz.co.nomadconsulting.simplesecurity.idm.Username;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.ManyToMany;
+
+
+@Entity
+public class BenchmarkUser {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @Username
+    @Column(unique = true)
+    private String username;
+
+    @PasswordHash
+    private String passwordHash;
+
+    @PasswordSalt
+    private String passwordSalt;
+
+    @UserEnabled
+    private boolean enabled;
+
+    @Roles
+    @ManyToMany
+    private Set<BenchmarkRole> roles = new HashSet<>();
+
+
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.benchmark;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.authorisation.RoleName;
+import nz.co.nomadconsulting.simplesecurity.idm.EffectiveRolesCache;
+import nz.co.nomadconsulting.simplesecurity.idm.IdentityManager;
+import nz.co.nomadconsulting.simplesecurity.idm.IdentityStore;
+import nz.co.nomadconsulting.simplesecurity.idm.IdentityStoreEvent;
+import nz.co.nomadconsulting.simplesecurity.idm.RoleGroup;
+import nz.co.nomadconsulting.simplesecurity.idm.RoleScopeClass;
+import nz.co.nomadconsulting.simplesecurity.idm.RoleScopeId;
+import nz.co.nomadconsulting.simplesecurity.idm.Roles;
+import nz.co.nomadconsulting.simplesecurity.idm.Username;
+import nz.co.nomadconsulting.simplesecurity.metrics.JmxSecurityMetrics;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * {@link IdentityManager#hasRole(Object, Object, Object)} for a user whose role is reached through a chain of nested {@link RoleGroup}s, each
+ * level of which also holds a few unrelated roles. The logged in user is answered from the {@link EffectiveRolesCache} snapshot, the other user
+ * by walking the groups. With <code>metrics</code> false recording is switched off, leaving only the check.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HasRoleBenchmark {
+
+    private static final int SIBLINGS = 3;
+
+    @Param({ "1", "5", "10" })
+    private int depth;
+
+    @Param({ "true", "false" })
+    private boolean metrics;
+
+    private IdentityManager identityManager;
+
+    private User loggedInUser;
+
+    private User otherUser;
+
+    private String deepestRole;
+
+
+    @Setup
+    public void setup() {
+        final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
+        config.setUserClass(User.class);
+        config.setRoleClass(Role.class);
+
+        identityManager = new IdentityManager();
+        final EffectiveRolesCache effectiveRolesCache = Beans.inject(new EffectiveRolesCache(), "identityManager", identityManager);
+        Beans.inject(effectiveRolesCache, "store", Beans.stub(IdentityStore.class));
+        Beans.inject(identityManager, "store", Beans.stub(IdentityStore.class));
+        Beans.inject(identityManager, "configuration", Beans.instance(config));
+        Beans.inject(identityManager, "effectiveRolesCache", effectiveRolesCache);
+        final JmxSecurityMetrics securityMetrics = new JmxSecurityMetrics();
+        securityMetrics.setEnabled(metrics);
+        Beans.inject(identityManager, "metrics", securityMetrics);
+        identityManager.init();
+
+        final Role top = new Role("level0");
+        Role level = top;
+        for (int i = 1; i <= depth; i++) {
+            final Role next = new Role("level" + i);
+            for (int j = 0; j < SIBLINGS; j++) {
+                level.roleGroup.add(new Role("level" + i + "-sibling" + j));
+            }
+            level.roleGroup.add(next);
+            level = next;
+        }
+        deepestRole = level.name;
+
+        loggedInUser = new User("loggedIn", top);
+        otherUser = new User("other", top);
+        effectiveRolesCache.loggedInEventListener(new IdentityStoreEvent(loggedInUser));
+    }
+
+
+    @Benchmark
+    public boolean snapshot() {
+        return identityManager.hasRole(loggedInUser, deepestRole, null);
+    }
+
+
+    @Benchmark
+    public boolean walk() {
+        return identityManager.hasRole(otherUser, deepestRole, null);
+    }
+
+
+    @Benchmark
+    public boolean snapshotMissing() {
+        return identityManager.hasRole(loggedInUser, "missing", null);
+    }
+
+
+    @Benchmark
+    public boolean walkMissing() {
+        return identityManager.hasRole(otherUser, "missing", null);
+    }
+
+
+    public static class User {
+        @Username
+        private final String username;
+
+        @Roles
+        private final Set<Role> roles = new HashSet<>();
+
+
+        User(final String username, final Role role) {
+            this.username = username;
+            roles.add(role);
+        }
+    }
+
+    public static class Role {
+        @RoleName
+        private final String name;
+
+        @RoleScopeId
+        private String scope;
+
+        @RoleScopeClass
+        private String scopeClass;
+
+        @RoleGroup
+        private final Set<Role> roleGroup = new HashSet<>();
+
+
+        Role(final String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.benchmark;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.idm.JpaIdentityStore;
+import nz.co.nomadconsulting.simplesecurity.idm.LoginRateLimiter;
+import nz.co.nomadconsulting.simplesecurity.idm.UserCache;
+import nz.co.nomadconsulting.simplesecurity.metrics.JmxSecurityMetrics;
+import nz.co.nomadconsulting.simplesecurity.util.PasswordUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.event.Event;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * {@link JpaIdentityStore#authenticate(String, String)} against an in memory H2 database through Hibernate, with and without the
+ * {@link UserCache}. The cost of every attempt is dominated by the password hash, unknown users are checked against a dummy hash.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JpaIdentityStoreBenchmark {
+
+    @Param({ "0", "1000" })
+    private int userCacheSize;
+
+    private EntityManagerFactory entityManagerFactory;
+
+    private EntityManager entityManager;
+
+    private JpaIdentityStore store;
+
+
+    @Setup
+    public void setup() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("benchmark");
+        entityManager = entityManagerFactory.createEntityManager();
+
+        final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
+        config.setUserClass(BenchmarkUser.class);
+        config.setRoleClass(BenchmarkRole.class);
+        config.setUserCacheSize(userCacheSize);
+
+        final UserCache userCache = Beans.inject(new UserCache(), "configuration", Beans.instance(config));
+        userCache.init();
+
+        store = new JpaIdentityStore();
+        Beans.inject(store, "entityManager", entityManager);
+        Beans.inject(store, "configuration", Beans.instance(config));
+        Beans.inject(store, "userCache", userCache);
+        Beans.inject(store, "passwordUtils", new PasswordUtils());
+        Beans.inject(store, "metrics", new JmxSecurityMetrics());
+        final LoginRateLimiter rateLimiter = Beans.inject(new LoginRateLimiter(), "configuration", Beans.instance(config));
+        rateLimiter.init();
+        Beans.inject(store, "rateLimiter", rateLimiter);
+        for (final String event : new String[] { "loggedInEvent", "userCreatedEvent", "userDeletedEvent", "preDeleteUserEvent",
+                "prePersistUserEvent", "prePersistRoleEvent", "usersCreatedEvent" }) {
+            final Event<Object> noObservers = Beans.event();
+            Beans.inject(store, event, noObservers);
+        }
+        store.init();
+
+        entityManager.getTransaction().begin();
+        store.createUser("craig", "v0yager1");
+        entityManager.getTransaction().commit();
+        entityManager.clear();
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+
+
+    @Benchmark
+    public boolean authenticate() {
+        return store.authenticate("craig", "v0yager1");
+    }
+
+
+    @Benchmark
+    public boolean authenticateWrongPassword() {
+        return store.authenticate("craig", "wrong");
+    }
+
+
+    @Benchmark
+    public boolean authenticateUnknownUser() {
+        return store.authenticate("unknown", "v0yager1");
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.benchmark;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.idm.JpaIdentityStore;
+import nz.co.nomadconsulting.simplesecurity.idm.LoginFailedEvent;
+import nz.co.nomadconsulting.simplesecurity.idm.LoginRateLimiter;
+import nz.co.nomadconsulting.simplesecurity.idm.UserCache;
+import nz.co.nomadconsulting.simplesecurity.metrics.JmxSecurityMetrics;
+import nz.co.nomadconsulting.simplesecurity.util.PasswordUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.event.Event;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * The latency distribution of rejecting a wrong password compared with rejecting an unknown user, which should be indistinguishable, and of
+ * rejecting an unknown user in cheap reject mode while the {@link LoginRateLimiter} reports an attack. Users are held in memory so that only
+ * the hashing is measured; run with the default sample time mode to see percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginTimingBenchmark {
+
+    @Param({ "false", "true" })
+    private boolean underAttack;
+
+    private JpaIdentityStore store;
+
+
+    @Setup
+    public void setup() {
+        final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
+        config.setUserClass(BenchmarkUser.class);
+        config.setRoleClass(BenchmarkRole.class);
+        config.setCheapRejectOnAbuse(true);
+        config.setLoginAbuseFailureRate(1);
+
+        final UserCache userCache = Beans.inject(new UserCache(), "configuration", Beans.instance(config));
+        userCache.init();
+        final LoginRateLimiter rateLimiter = Beans.inject(new LoginRateLimiter(), "configuration", Beans.instance(config));
+        rateLimiter.init();
+        if (underAttack) {
+            // a burst far beyond one failure a second keeps the limiter reporting an attack for the whole run
+            for (int i = 0; i < 1000000; i++) {
+                rateLimiter.loginFailedEventListener(new LoginFailedEvent());
+            }
+        }
+
+        store = new InMemoryIdentityStore();
+        Beans.inject(store, "configuration", Beans.instance(config));
+        Beans.inject(store, "userCache", userCache);
+        Beans.inject(store, "passwordUtils", new PasswordUtils());
+        Beans.inject(store, "metrics", new JmxSecurityMetrics());
+        Beans.inject(store, "rateLimiter", rateLimiter);
+        for (final String event : new String[] { "loggedInEvent", "userCreatedEvent", "userDeletedEvent", "preDeleteUserEvent",
+                "prePersistUserEvent", "prePersistRoleEvent", "usersCreatedEvent" }) {
+            final Event<Object> noObservers = Beans.event();
+            Beans.inject(store, event, noObservers);
+        }
+        store.init();
+        store.createUser("craig", "v0yager1");
+    }
+
+
+    @Benchmark
+    public boolean wrongPassword() {
+        return store.authenticate("craig", "wrong");
+    }
+
+
+    @Benchmark
+    public boolean unknownUser() {
+        return store.authenticate("unknown", "wrong");
+    }
+
+
+    /**
+     * Keeps users in a map in place of the database.
+     */
+    static class InMemoryIdentityStore extends JpaIdentityStore {
+
+        private final Map<String, BenchmarkUser> users = new ConcurrentHashMap<>();
+
+
+        @Override
+        protected void buildQueries() {
+        }
+
+
+        @Override
+        protected Object findUser(final String name) {
+            return users.get(name);
+        }
+
+
+        @Override
+        protected void persistEntity(final Object user) {
+            users.put(((BenchmarkUser) user).getUsername(), (BenchmarkUser) user);
+        }
+    }
+}
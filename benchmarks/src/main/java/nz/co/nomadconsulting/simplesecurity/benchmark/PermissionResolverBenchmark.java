@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.benchmark;
+
+import nz.co.nomadconsulting.simplesecurity.authorisation.BatchPermissionStore;
+import nz.co.nomadconsulting.simplesecurity.authorisation.PermissionCheck;
+import nz.co.nomadconsulting.simplesecurity.authorisation.PermissionResolver;
+import nz.co.nomadconsulting.simplesecurity.authorisation.PermissionResolverConfiguration;
+import nz.co.nomadconsulting.simplesecurity.authorisation.PermissionStore;
+import nz.co.nomadconsulting.simplesecurity.metrics.JmxSecurityMetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * {@link PermissionResolver} consulting several in memory stores where only the last store grants anything, so every check visits every
+ * store. Checks for a page of resources are made one at a time and with {@link PermissionResolver#hasPermissions}, against stores which
+ * answer each check separately and against stores which are also a {@link BatchPermissionStore}. With <code>metrics</code> false recording
+ * is switched off.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PermissionResolverBenchmark {
+
+    private static final int RESOURCES = 20;
+
+    private static final List<String> PERMISSIONS = Arrays.asList("view", "edit");
+
+    @Param({ "1", "4" })
+    private int stores;
+
+    @Param({ "false", "true" })
+    private boolean batch;
+
+    @Param({ "true", "false" })
+    private boolean metrics;
+
+    private final Object identity = "craig";
+
+    private final List<Object> resources = new ArrayList<>();
+
+    private PermissionResolver resolver;
+
+
+    @Setup
+    public void setup() {
+        final Set<PermissionStore> permissionStores = new LinkedHashSet<>();
+        for (int i = 1; i < stores; i++) {
+            permissionStores.add(createStore());
+        }
+        final InMemoryPermissionStore granting = createStore();
+        permissionStores.add(granting);
+        for (int i = 0; i < RESOURCES; i++) {
+            final Object resource = "document" + i;
+            resources.add(resource);
+            granting.grantPermission(identity, resource, "view");
+        }
+
+        final PermissionResolverConfiguration config = new PermissionResolverConfiguration();
+        config.setStores(permissionStores);
+        resolver = Beans.inject(new PermissionResolver(), "configuration", Beans.instance(config));
+        final JmxSecurityMetrics securityMetrics = new JmxSecurityMetrics();
+        securityMetrics.setEnabled(metrics);
+        Beans.inject(resolver, "metrics", securityMetrics);
+        resolver.init();
+    }
+
+
+    private InMemoryPermissionStore createStore() {
+        return batch ? new InMemoryBatchPermissionStore() : new InMemoryPermissionStore();
+    }
+
+
+    @Benchmark
+    public boolean single() {
+        return resolver.hasPermission(identity, resources.get(RESOURCES - 1), "view");
+    }
+
+
+    @Benchmark
+    public void pageOneAtATime(final Blackhole blackhole) {
+        for (final Object resource : resources) {
+            for (final String permission : PERMISSIONS) {
+                blackhole.consume(resolver.hasPermission(identity, resource, permission));
+            }
+        }
+    }
+
+
+    @Benchmark
+    public Map<Object, Set<String>> pageBatch() {
+        return resolver.hasPermissions(identity, resources, PERMISSIONS);
+    }
+
+
+    static class InMemoryPermissionStore implements PermissionStore {
+
+        private final Set<List<Object>> granted = new HashSet<>();
+
+
+        @Override
+        public boolean hasPermission(final Object identity, final Object resource, final String permission) {
+            return granted.contains(Arrays.asList(identity, resource, permission));
+        }
+
+
+        @Override
+        public void grantPermission(final Object identity, final Object resource, final Object permission) {
+            granted.add(Arrays.<Object> asList(identity, resource, permission));
+        }
+
+
+        @Override
+        public void revokePermission(final Object identity, final Object resource, final Object permission) {
+            granted.remove(Arrays.asList(identity, resource, permission));
+        }
+    }
+
+
+    static class InMemoryBatchPermissionStore extends InMemoryPermissionStore implements BatchPermissionStore {
+
+        @Override
+        public void checkPermissions(final Object identity, final Collection<PermissionCheck> checks) {
+            for (final PermissionCheck check : checks) {
+                if (hasPermission(identity, check.getResource(), check.getOperation())) {
+                    check.grant();
+                }
+            }
+        }
+    }
+}
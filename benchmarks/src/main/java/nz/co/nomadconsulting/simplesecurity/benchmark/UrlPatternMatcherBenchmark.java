@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.benchmark;
+
+import nz.co.nomadconsulting.simplesecurity.idm.PathUrlPatternMatcher;
+import nz.co.nomadconsulting.simplesecurity.idm.RegexUrlPatternMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Matches a secured url, which has to be checked against every pattern, and a public stylesheet url against a set of unsecured patterns. The
+ * patterns are a mix of exact pages, path prefixes, extensions and general regexes. {@link RegexUrlPatternMatcher} and
+ * {@link PathUrlPatternMatcher} are compared with trying each regex in turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UrlPatternMatcherBenchmark {
+
+    private static final String SECURED = "/secure/accounts/edit.xhtml";
+
+    private static final String PUBLIC = "/theme/site.css";
+
+    @Param({ "10", "40" })
+    private int patterns;
+
+    private final List<Pattern> regexes = new ArrayList<>();
+
+    private RegexUrlPatternMatcher regexMatcher;
+
+    private PathUrlPatternMatcher pathMatcher;
+
+
+    @Setup
+    public void setup() {
+        regexMatcher = new RegexUrlPatternMatcher();
+        pathMatcher = new PathUrlPatternMatcher();
+        for (int i = 0; i < patterns; i++) {
+            switch (i % 4) {
+                case 0:
+                    add("/page" + i + "\\.xhtml", "/page" + i + ".xhtml");
+                    break;
+                case 1:
+                    add("/public" + i + "/.*", "/public" + i + "/*");
+                    break;
+                case 2:
+                    add(".*\\.ext" + i, "*.ext" + i);
+                    break;
+                default:
+                    add("/report" + i + "/[0-9]+\\.xhtml", "/report" + i + "/*");
+                    break;
+            }
+        }
+        add(".*\\.css", "*.css");
+    }
+
+
+    private void add(final String regex, final String path) {
+        regexes.add(Pattern.compile(regex));
+        regexMatcher.addPattern(regex);
+        pathMatcher.addPattern(path);
+    }
+
+
+    @Benchmark
+    public boolean eachRegexSecured() {
+        return matchEach(SECURED);
+    }
+
+
+    @Benchmark
+    public boolean eachRegexPublic() {
+        return matchEach(PUBLIC);
+    }
+
+
+    @Benchmark
+    public boolean regexMatcherSecured() {
+        return regexMatcher.matches(SECURED);
+    }
+
+
+    @Benchmark
+    public boolean regexMatcherPublic() {
+        return regexMatcher.matches(PUBLIC);
+    }
+
+
+    @Benchmark
+    public boolean pathMatcherSecured() {
+        return pathMatcher.matches(SECURED);
+    }
+
+
+    @Benchmark
+    public boolean pathMatcherPublic() {
+        return pathMatcher.matches(PUBLIC);
+    }
+
+
+    private boolean matchEach(final String url) {
+        for (final Pattern regex : regexes) {
+            if (regex.matcher(url).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Named;
+
+
+/**
+ * Remembers the outcome of the authorisation checks made through {@link DefaultIdentity} for the duration of a request, so that a view which
+ * evaluates the same <code>#{identity.hasPermission(...)}</code> or <code>#{identity.hasRole(...)}</code> expression for every row of a table
+ * only asks the {@link nz.co.nomadconsulting.simplesecurity.authorisation.PermissionResolver} or
+ * {@link nz.co.nomadconsulting.simplesecurity.idm.IdentityManager} once.
+ * <p>
+ * Resources and scopes are matched by reference, permissions and roles with equals. Decisions are cleared when the user logs in or out, when
+ * a role is granted or revoked and when a {@link nz.co.nomadconsulting.simplesecurity.authorisation.PermissionsChangedEvent} is fired.
+ *
+ * @author craig
+ *
+ */
+@RequestScoped
+@Named
+public class DecisionCache {
+
+    private final Map<Decision, Boolean> permissions = new HashMap<>();
+
+    private final Map<Decision, Boolean> roles = new HashMap<>();
+
+    private long hits;
+
+    private long misses;
+
+
+    /**
+     * @return the remembered decision, or null if the permission has not been checked during this request
+     */
+    public Boolean getPermission(final Object resource, final String permission) {
+        return count(permissions.get(new Decision(resource, permission)));
+    }
+
+
+    public void putPermission(final Object resource, final String permission, final boolean granted) {
+        permissions.put(new Decision(resource, permission), granted);
+    }
+
+
+    /**
+     * @return the remembered decision, or null if the role has not been checked during this request
+     */
+    public Boolean getRole(final Object role, final Object scope) {
+        return count(roles.get(new Decision(scope, role)));
+    }
+
+
+    public void putRole(final Object role, final Object scope, final boolean granted) {
+        roles.put(new Decision(scope, role), granted);
+    }
+
+
+    public void clear() {
+        permissions.clear();
+        roles.clear();
+    }
+
+
+    /**
+     * @return the number of checks answered from this cache during the request
+     */
+    public long getHits() {
+        return hits;
+    }
+
+
+    /**
+     * @return the number of checks which had to be passed on during the request
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+
+    private Boolean count(final Boolean decision) {
+        if (decision == null) {
+            misses++;
+        }
+        else {
+            hits++;
+        }
+        return decision;
+    }
+
+
+    private static final class Decision {
+
+        private final Object target;
+
+        private final Object name;
+
+
+        Decision(final Object target, final Object name) {
+            this.target = target;
+            this.name = name;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(target) + (name == null ? 0 : name.hashCode());
+        }
+
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Decision)) {
+                return false;
+            }
+            final Decision other = (Decision) obj;
+            return target == other.target && (name == null ? other.name == null : name.equals(other.name));
+        }
+    }
+}
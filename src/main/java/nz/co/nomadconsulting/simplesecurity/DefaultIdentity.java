@@ -16,19 +16,31 @@
 package nz.co.nomadconsulting.simplesecurity;
 
 import nz.co.nomadconsulting.simplesecurity.authorisation.PermissionResolver;
+import nz.co.nomadconsulting.simplesecurity.authorisation.PermissionsChangedEvent;
 import nz.co.nomadconsulting.simplesecurity.idm.DefaultCredentials;
 import nz.co.nomadconsulting.simplesecurity.idm.IdentityManager;
 import nz.co.nomadconsulting.simplesecurity.idm.IdentityStoreEvent;
 import nz.co.nomadconsulting.simplesecurity.idm.LoggedIn;
 import nz.co.nomadconsulting.simplesecurity.idm.LoggedOut;
 import nz.co.nomadconsulting.simplesecurity.idm.LoginFailedEvent;
-
+import nz.co.nomadconsulting.simplesecurity.idm.LoginRateLimiter;
+import nz.co.nomadconsulting.simplesecurity.idm.LoginSourceResolver;
+import nz.co.nomadconsulting.simplesecurity.idm.PrePersistRole;
+import nz.co.nomadconsulting.simplesecurity.idm.RoleRevoked;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics;
+
+import javax.enterprise.context.ContextNotActiveException;
+import javax.enterprise.context.RequestScoped;
 import javax.enterprise.context.SessionScoped;
 import javax.enterprise.event.Event;
 import javax.enterprise.event.Observes;
+import javax.enterprise.event.Reception;
+import javax.enterprise.inject.Instance;
 import javax.enterprise.inject.Produces;
+import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.servlet.http.HttpServletRequest;
 
 
 @SuppressWarnings("serial")
@@ -52,32 +64,95 @@ public class DefaultIdentity implements Identity {
     @LoggedOut
     private Event<IdentityStoreEvent> loggedOutEvent;
 
+    @Inject
+    private DecisionCache decisionCache;
+
+    @Inject
+    private transient SecurityMetrics metrics;
+
+    @Inject
+    private transient LoginRateLimiter rateLimiter;
+
+    @Inject
+    private transient LoginSourceResolver sourceResolver;
+
+    @Inject
+    private transient Instance<HttpServletRequest> request;
+
+    @Inject
+    private transient BeanManager beanManager;
+
     private Object user;
 
 
     public void loggedInEventListener(@Observes @LoggedIn final IdentityStoreEvent event) {
         user = event.getUser();
+        clearDecisions();
+    }
+
+
+    // roles and permissions also change from timers, asynchronous tasks and requests without a session, so only an existing identity is told
+    public void prePersistRoleEventListener(
+            @Observes(notifyObserver = Reception.IF_EXISTS) @PrePersistRole final IdentityStoreEvent event) {
+        clearDecisions();
+    }
+
+
+    public void roleRevokedEventListener(@Observes(notifyObserver = Reception.IF_EXISTS) @RoleRevoked final IdentityStoreEvent event) {
+        clearDecisions();
+    }
+
+
+    public void permissionsChangedEventListener(@Observes(notifyObserver = Reception.IF_EXISTS) final PermissionsChangedEvent event) {
+        clearDecisions();
     }
 
 
     @Override
     public boolean login() {
+        final String username = credentials.getUsername();
+        final String source = getSource();
+        if (rateLimiter.isThrottled(username, source)) {
+            loginFailedEvent.fire(new LoginFailedEvent(username, source, true));
+            return false;
+        }
         final boolean success = identityManager.authenticate(
-                credentials.getUsername(), credentials.getPassword());
+                username, credentials.getPassword());
         // TODO throw exception on login failure
-        if (!success) {
-            loginFailedEvent.fire(new LoginFailedEvent());
+        if (success) {
+            rateLimiter.loginSucceeded(username);
+        }
+        else {
+            loginFailedEvent.fire(new LoginFailedEvent(username, source, false));
         }
         return success;
     }
 
 
+    /**
+     * @return the source of the current request according to the {@link LoginSourceResolver}, or null if there is no request, e.g. outside a
+     *         web container
+     */
+    private String getSource() {
+        if (request.isUnsatisfied()) {
+            return null;
+        }
+        try {
+            return sourceResolver.resolveSource(request.get());
+        }
+        catch (ContextNotActiveException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+
     @Override
     public void logout() {
         if (isLoggedIn()) {
             final IdentityStoreEvent event = new IdentityStoreEvent(user);
             credentials.invalidate();
             user = null;
+            clearDecisions();
             loggedOutEvent.fire(event);
             
             // TODO should someone invalidate the session?
@@ -93,19 +168,68 @@ public class DefaultIdentity implements Identity {
 
     @Override
     public boolean hasRole(final Object role) {
-        return identityManager.hasRole(user, role, null);
+        return hasRole(role, null);
     }
     
     
     @Override
     public boolean hasRole(final Object role, final Object scope) {
-        return identityManager.hasRole(user, role, scope);
+        final DecisionCache cache = getDecisionCache();
+        if (cache != null) {
+            final Boolean decision = cache.getRole(role, scope);
+            metrics.recordCacheAccess(SecurityMetrics.Cache.DECISION, decision != null);
+            if (decision != null) {
+                return decision;
+            }
+        }
+        final boolean granted = identityManager.hasRole(user, role, scope);
+        if (cache != null) {
+            cache.putRole(role, scope, granted);
+        }
+        return granted;
     }
 
 
     @Override
     public boolean hasPermission(final Object resource, final String permission) {
-        return permissionResolver.hasPermission(user, resource, permission);
+        final DecisionCache cache = getDecisionCache();
+        if (cache != null) {
+            final Boolean decision = cache.getPermission(resource, permission);
+            metrics.recordCacheAccess(SecurityMetrics.Cache.DECISION, decision != null);
+            if (decision != null) {
+                return decision;
+            }
+        }
+        final boolean granted = permissionResolver.hasPermission(user, resource, permission);
+        if (cache != null) {
+            cache.putPermission(resource, permission, granted);
+        }
+        return granted;
+    }
+
+
+    /**
+     * @return the decision cache for the current request, or null when called outside of a request, e.g. from a timer or an asynchronous task.
+     *         The container throws rather than returning an inactive context when there is no request.
+     */
+    private DecisionCache getDecisionCache() {
+        try {
+            if (beanManager.getContext(RequestScoped.class).isActive()) {
+                return decisionCache;
+            }
+        }
+        catch (final ContextNotActiveException e) {
+            // no request, so nothing to cache decisions in
+        }
+        return null;
+    }
+
+
+    private void clearDecisions() {
+        final DecisionCache cache = getDecisionCache();
+        if (cache != null) {
+            cache.clear();
+        }
     }
 
 
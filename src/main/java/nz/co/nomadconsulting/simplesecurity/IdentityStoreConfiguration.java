@@ -25,6 +25,38 @@ public class IdentityStoreConfiguration {
 
     private Class<?> roleClass;
 
+    private int userCacheSize;
+
+    private long userCacheTimeToLive = 60000;
+
+    private int hashingThreads;
+
+    private int hashingQueueSize = 100;
+
+    private long hashingQueueTimeout = 1000;
+
+    private String passwordHashAlgorithm;
+
+    private int passwordHashIterations;
+
+    private long passwordHashTargetLatency;
+
+    private int loginAttemptsPerUsername;
+
+    private int loginAttemptsPerSource;
+
+    private long loginAttemptRefillPeriod = 60000;
+
+    private int loginThrottleMaxKeys = 65536;
+
+    private int loginAbuseFailureRate;
+
+    private boolean cheapRejectOnAbuse;
+
+    private int createUsersBatchSize = 500;
+
+    private int traceSampleRate = 1000;
+
 
     public Class<?> getUserClass() {
         return userClass;
@@ -44,4 +76,237 @@ public class IdentityStoreConfiguration {
     public void setRoleClass(final Class<?> roleClass) {
         this.roleClass = roleClass;
     }
+
+
+    /**
+     * The maximum number of users whose credentials are held by the {@link nz.co.nomadconsulting.simplesecurity.idm.UserCache}. Zero, the
+     * default, disables caching.
+     */
+    public int getUserCacheSize() {
+        return userCacheSize;
+    }
+
+
+    public void setUserCacheSize(final int userCacheSize) {
+        this.userCacheSize = userCacheSize;
+    }
+
+
+    /**
+     * How long, in milliseconds, cached credentials are used before the user is looked up again. Defaults to one minute.
+     */
+    public long getUserCacheTimeToLive() {
+        return userCacheTimeToLive;
+    }
+
+
+    public void setUserCacheTimeToLive(final long userCacheTimeToLive) {
+        this.userCacheTimeToLive = userCacheTimeToLive;
+    }
+
+
+    /**
+     * The number of threads the {@link nz.co.nomadconsulting.simplesecurity.idm.PasswordHashExecutor} uses for asynchronous authentication,
+     * and the parallelism used to hash passwords when creating users in bulk. Zero, the default, uses one thread per available processor.
+     */
+    public int getHashingThreads() {
+        return hashingThreads;
+    }
+
+
+    public void setHashingThreads(final int hashingThreads) {
+        this.hashingThreads = hashingThreads;
+    }
+
+
+    /**
+     * The maximum number of asynchronous authentication attempts waiting for a hashing thread. Defaults to 100.
+     */
+    public int getHashingQueueSize() {
+        return hashingQueueSize;
+    }
+
+
+    public void setHashingQueueSize(final int hashingQueueSize) {
+        this.hashingQueueSize = hashingQueueSize;
+    }
+
+
+    /**
+     * How long, in milliseconds, an asynchronous authentication attempt waits for space in a full hashing queue before it is rejected.
+     * Defaults to one second.
+     */
+    public long getHashingQueueTimeout() {
+        return hashingQueueTimeout;
+    }
+
+
+    public void setHashingQueueTimeout(final long hashingQueueTimeout) {
+        this.hashingQueueTimeout = hashingQueueTimeout;
+    }
+
+
+    /**
+     * The algorithm used for new password hashes, e.g. "PBKDF2WithHmacSHA512" or "SHA-512". Overrides
+     * {@link nz.co.nomadconsulting.simplesecurity.idm.PasswordHash#hash()} when set. Existing hashes are replaced on the user's next login.
+     * Unlike the annotation there is no fallback, the store fails to start if the algorithm is not available.
+     */
+    public String getPasswordHashAlgorithm() {
+        return passwordHashAlgorithm;
+    }
+
+
+    public void setPasswordHashAlgorithm(final String passwordHashAlgorithm) {
+        this.passwordHashAlgorithm = passwordHashAlgorithm;
+    }
+
+
+    /**
+     * The number of iterations used for new password hashes. Overrides
+     * {@link nz.co.nomadconsulting.simplesecurity.idm.PasswordHash#iterations()} when greater than zero. Existing hashes are replaced on the
+     * user's next login.
+     */
+    public int getPasswordHashIterations() {
+        return passwordHashIterations;
+    }
+
+
+    public void setPasswordHashIterations(final int passwordHashIterations) {
+        this.passwordHashIterations = passwordHashIterations;
+    }
+
+
+    /**
+     * When greater than zero the iterations used for new password hashes are calibrated at startup so that one hash takes about this many
+     * milliseconds on the host. Ignored if {@link #getPasswordHashIterations()} is set. Because hosts differ, existing hashes within a quarter
+     * of the calibrated count are not replaced. Calibrating adds around half a second to startup.
+     */
+    public long getPasswordHashTargetLatency() {
+        return passwordHashTargetLatency;
+    }
+
+
+    public void setPasswordHashTargetLatency(final long passwordHashTargetLatency) {
+        this.passwordHashTargetLatency = passwordHashTargetLatency;
+    }
+
+
+    /**
+     * The number of failed logins allowed for a username before further attempts are refused by the
+     * {@link nz.co.nomadconsulting.simplesecurity.idm.LoginRateLimiter}. Zero, the default, disables throttling by username.
+     */
+    public int getLoginAttemptsPerUsername() {
+        return loginAttemptsPerUsername;
+    }
+
+
+    public void setLoginAttemptsPerUsername(final int loginAttemptsPerUsername) {
+        this.loginAttemptsPerUsername = loginAttemptsPerUsername;
+    }
+
+
+    /**
+     * The number of failed logins allowed from one source, by default the remote address, before further attempts are refused. Zero, the
+     * default, disables throttling by source. Behind a reverse proxy provide a
+     * {@link nz.co.nomadconsulting.simplesecurity.idm.LoginSourceResolver} which reads the client address, otherwise every user shares one
+     * source.
+     */
+    public int getLoginAttemptsPerSource() {
+        return loginAttemptsPerSource;
+    }
+
+
+    public void setLoginAttemptsPerSource(final int loginAttemptsPerSource) {
+        this.loginAttemptsPerSource = loginAttemptsPerSource;
+    }
+
+
+    /**
+     * How long, in milliseconds, before a throttled username or source is allowed one more attempt. Defaults to one minute.
+     */
+    public long getLoginAttemptRefillPeriod() {
+        return loginAttemptRefillPeriod;
+    }
+
+
+    public void setLoginAttemptRefillPeriod(final long loginAttemptRefillPeriod) {
+        this.loginAttemptRefillPeriod = loginAttemptRefillPeriod;
+    }
+
+
+    /**
+     * The number of usernames, and separately of sources, whose failed logins the
+     * {@link nz.co.nomadconsulting.simplesecurity.idm.LoginRateLimiter} tracks at once, each taking around 100 bytes. Beyond this the failures
+     * of usernames and sources which have not failed recently are forgotten, so choose a value well above the number of distinct usernames
+     * expected to fail within one {@link #getLoginAttemptRefillPeriod()}. Defaults to 65536.
+     */
+    public int getLoginThrottleMaxKeys() {
+        return loginThrottleMaxKeys;
+    }
+
+
+    public void setLoginThrottleMaxKeys(final int loginThrottleMaxKeys) {
+        this.loginThrottleMaxKeys = loginThrottleMaxKeys;
+    }
+
+
+    /**
+     * The number of failed logins per second, across all usernames and sources, above which the
+     * {@link nz.co.nomadconsulting.simplesecurity.idm.LoginRateLimiter} considers the application under attack. Zero, the default, disables
+     * the check.
+     */
+    public int getLoginAbuseFailureRate() {
+        return loginAbuseFailureRate;
+    }
+
+
+    public void setLoginAbuseFailureRate(final int loginAbuseFailureRate) {
+        this.loginAbuseFailureRate = loginAbuseFailureRate;
+    }
+
+
+    /**
+     * Unknown or disabled users are normally checked against a dummy password hash so that they take as long to reject as a wrong password.
+     * If true the dummy hash is skipped while the application is under attack, see {@link #getLoginAbuseFailureRate()}, trading uniform
+     * timing for the CPU it would cost. Defaults to false.
+     */
+    public boolean isCheapRejectOnAbuse() {
+        return cheapRejectOnAbuse;
+    }
+
+
+    public void setCheapRejectOnAbuse(final boolean cheapRejectOnAbuse) {
+        this.cheapRejectOnAbuse = cheapRejectOnAbuse;
+    }
+
+
+    /**
+     * The number of users checked, hashed and persisted together by
+     * {@link nz.co.nomadconsulting.simplesecurity.idm.BatchIdentityStore#createUsers(java.util.Map, nz.co.nomadconsulting.simplesecurity.idm.CreateUsersListener)}.
+     * Each batch is checked for existing users with IN list queries of at most
+     * {@link nz.co.nomadconsulting.simplesecurity.authorisation.JpaPermissionStore#MAX_TARGETS_PER_QUERY} usernames.
+     * Defaults to 500.
+     */
+    public int getCreateUsersBatchSize() {
+        return createUsersBatchSize;
+    }
+
+
+    public void setCreateUsersBatchSize(final int createUsersBatchSize) {
+        this.createUsersBatchSize = createUsersBatchSize;
+    }
+
+
+    /**
+     * How often calls through the {@link nz.co.nomadconsulting.simplesecurity.idm.AuthenticationInterceptor} are traced when its logger is
+     * enabled for FINE, e.g. 100 traces about one call in a hundred. Defaults to 1000.
+     */
+    public int getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+
+    public void setTraceSampleRate(final int traceSampleRate) {
+        this.traceSampleRate = traceSampleRate;
+    }
 }
@@ -28,6 +28,13 @@ import javax.enterprise.util.Nonbinding;
 import javax.interceptor.InterceptorBinding;
 
 
+/**
+ * Restricts a method, or every method of a type, to users holding the given roles. By default any one of the roles is sufficient; set
+ * {@link #all()} to require every role. An empty list of roles denies every call.
+ *
+ * @author craig
+ *
+ */
 @Inherited
 @Documented
 @InterceptorBinding
@@ -36,4 +43,11 @@ import javax.interceptor.InterceptorBinding;
 public @interface Authorised {
     @Nonbinding
     String[] value();
+
+
+    /**
+     * @return true if the user must hold all of the roles rather than any one of them
+     */
+    @Nonbinding
+    boolean all() default false;
 }
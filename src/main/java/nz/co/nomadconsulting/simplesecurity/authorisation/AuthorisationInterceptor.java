@@ -17,7 +17,12 @@ package nz.co.nomadconsulting.simplesecurity.authorisation;
 
 import nz.co.nomadconsulting.simplesecurity.Identity;
 import nz.co.nomadconsulting.simplesecurity.annotation.Authorised;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -28,33 +33,154 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response.Status;
 
 
+/**
+ * Rejects calls to {@link Authorised} methods with {@link Status#FORBIDDEN} unless the current {@link Identity} holds the required roles. The
+ * annotation is resolved once per method of each target class, from the method or else the class of the target or the method's declaring
+ * class, and kept as a compiled rule. Calls are rejected if no annotation can be found or if the annotation names no roles.
+ *
+ * @author craig
+ *
+ */
 @Interceptor
 @Authorised({})
 public class AuthorisationInterceptor {
 
-    private final Logger logger = Logger
+    private static final ConcurrentMap<RuleKey, Rule> RULES = new ConcurrentHashMap<>();
+
+    private static final Logger logger = Logger
             .getLogger(AuthorisationInterceptor.class.getName());
 
     @Inject
     private Identity identity;
 
+    @Inject
+    private SecurityMetrics metrics;
+
 
     @AroundInvoke
     public Object authorisationCheck(final InvocationContext ctx)
             throws Exception {
+        final boolean timed = metrics.isEnabled();
+        final long start = timed ? System.nanoTime() : 0;
+        final Method method = ctx.getMethod();
+        final Object target = ctx.getTarget();
+        final Rule rule = getRule(method, target == null ? method.getDeclaringClass() : target.getClass());
 
-        logger.info(">>> authorisationCheck - LoggingInterceptor - before method invoke: "
-                + ctx.getMethod().getName());
+        boolean rejected = false;
+        try {
+            if (!rule.isSatisfiedBy(identity)) {
+                rejected = true;
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Call to " + method.getName() + " rejected, required roles not held");
+                }
+                throw new WebApplicationException(Status.FORBIDDEN);
+            }
+            return ctx.proceed();
+        }
+        finally {
+            if (timed) {
+                metrics.recordInterceptedCall(SecurityMetrics.Interceptor.AUTHORISATION, rejected, System.nanoTime() - start);
+            }
+        }
+    }
 
-        if (!identity.hasRole(ctx.getMethod().getAnnotation(Authorised.class)
-                .value()[0])) {
-            logger.info("Call made to routine when not privledged (Superuser)");
-            throw new WebApplicationException(Status.FORBIDDEN);
+
+    /**
+     * @return the rule for calls to the method on an instance of the target class, compiled on first use. The target class is part of the key
+     *         as subclasses inheriting the same method may be annotated differently.
+     */
+    static Rule getRule(final Method method, final Class<?> targetClass) {
+        final RuleKey key = new RuleKey(targetClass, method);
+        Rule rule = RULES.get(key);
+        if (rule == null) {
+            rule = compile(method, targetClass);
+            final Rule existing = RULES.putIfAbsent(key, rule);
+            if (existing != null) {
+                rule = existing;
+            }
         }
+        return rule;
+    }
+
+
+    private static Rule compile(final Method method, final Class<?> targetClass) {
+        Authorised authorised = method.getAnnotation(Authorised.class);
+        if (authorised == null) {
+            authorised = targetClass.getAnnotation(Authorised.class);
+        }
+        if (authorised == null) {
+            authorised = method.getDeclaringClass().getAnnotation(Authorised.class);
+        }
+        if (authorised == null) {
+            return Rule.DENY;
+        }
+        if (authorised.value().length == 0) {
+            logger.warning("@Authorised on " + targetClass.getName() + "." + method.getName()
+                    + " names no roles, every call will be rejected");
+            return Rule.DENY;
+        }
+        return new Rule(authorised.value().clone(), authorised.all());
+    }
+
+
+    private static final class RuleKey {
+
+        private final Class<?> targetClass;
 
-        logger.info("<<<authorisationCheck - LoggingInterceptor - after method invoke: "
-                + ctx.getMethod().getName());
+        private final Method method;
 
-        return ctx.proceed();
+
+        RuleKey(final Class<?> targetClass, final Method method) {
+            this.targetClass = targetClass;
+            this.method = method;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * targetClass.hashCode() + method.hashCode();
+        }
+
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof RuleKey)) {
+                return false;
+            }
+            final RuleKey other = (RuleKey) obj;
+            return targetClass == other.targetClass && method.equals(other.method);
+        }
+    }
+
+
+    static final class Rule {
+
+        /**
+         * Rejects every call, used when the interceptor is bound but no {@link Authorised} annotation can be found or it names no roles.
+         */
+        static final Rule DENY = new Rule(null, false);
+
+        private final String[] roles;
+
+        private final boolean all;
+
+
+        Rule(final String[] roles, final boolean all) {
+            this.roles = roles;
+            this.all = all;
+        }
+
+
+        boolean isSatisfiedBy(final Identity identity) {
+            if (roles == null || roles.length == 0) {
+                return false;
+            }
+            for (final String role : roles) {
+                if (identity.hasRole(role) != all) {
+                    return !all;
+                }
+            }
+            return all;
+        }
     }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.authorisation;
+
+import java.util.Collection;
+
+
+/**
+ * A {@link PermissionStore} which can evaluate many permission checks at once, for example with a single query or a single firing of the rules.
+ * {@link PermissionResolver#hasPermissions(Object, Collection, Collection)} uses this in preference to calling
+ * {@link #hasPermission(Object, Object, String)} once per check.
+ *
+ * @author craig
+ *
+ */
+public interface BatchPermissionStore extends PermissionStore {
+
+    /**
+     * Evaluates each of the checks for the given identity, calling {@link PermissionCheck#grant()} on those which are granted.
+     */
+    void checkPermissions(Object identity, Collection<PermissionCheck> checks);
+}
@@ -15,25 +15,388 @@
  */
 package nz.co.nomadconsulting.simplesecurity.authorisation;
 
-public class JpaPermissionStore implements PermissionStore {
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.idm.IdentityManagementException;
+import nz.co.nomadconsulting.simplesecurity.idm.IdentityStore;
+import nz.co.nomadconsulting.simplesecurity.idm.Username;
+import nz.co.nomadconsulting.simplesecurity.util.AnnotatedBeanProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+
+
+/**
+ * A {@link PermissionStore} holding access control entries in a database using JPA. Each entry is an instance of the permission class set with
+ * {@link PermissionResolverConfiguration#setPermissionClass(Class)}, which must declare the following annotated properties:
+ * <ul>
+ * <li>{@link PermissionRecipient} - the identity granted the permission. Either a reference to the user entity or, if the property is a
+ * String, the {@link Username} of the user</li>
+ * <li>{@link PermissionTargetClass} - the class name of the resource</li>
+ * <li>{@link PermissionTarget} - the identifier of the resource, as returned by {@link IdentityStore#getIdentifier(Object)}</li>
+ * <li>{@link PermissionAction} - the permission granted, e.g. "edit"</li>
+ * </ul>
+ * Resources are keyed by the name of their entity class, so a lazy loading proxy shares the permissions of the entity it stands in for.
+ * Checks and revocations covering many resources are split into queries of at most {@link #MAX_TARGETS_PER_QUERY} targets each. Every check
+ * is answered by a query filtering on recipient, target class and target so these columns should be indexed together:
+ *
+ * <pre>
+ * &#064;Entity
+ * &#064;Table(indexes = &#064;Index(columnList = &quot;recipient_id, targetClass, target&quot;))
+ * public class Permission {
+ *
+ *     &#064;Id
+ *     &#064;GeneratedValue
+ *     private Long id;
+ *
+ *     &#064;PermissionRecipient
+ *     &#064;ManyToOne
+ *     private User recipient;
+ *
+ *     &#064;PermissionTargetClass
+ *     private String targetClass;
+ *
+ *     &#064;PermissionTarget
+ *     private String target;
+ *
+ *     &#064;PermissionAction
+ *     private String action;
+ * }
+ * </pre>
+ *
+ * @author craig
+ *
+ */
+@ApplicationScoped
+public class JpaPermissionStore implements BatchPermissionStore {
+
+    /**
+     * The most resource identifiers bound to a single <code>in</code> list, below the limits of the common databases.
+     */
+    public static final int MAX_TARGETS_PER_QUERY = 1000;
+
+    @Inject
+    private EntityManager entityManager;
+
+    @Inject
+    private Instance<IdentityStoreConfiguration> identityStoreConfiguration;
+
+    @Inject
+    private Instance<PermissionResolverConfiguration> configuration;
+
+    @Inject
+    private IdentityStore identityStore;
+
+    @Inject
+    private Event<PermissionsChangedEvent> permissionsChangedEvent;
+
+    private Class<?> permissionClass;
+
+    private AnnotatedBeanProperty<PermissionRecipient> recipientProperty;
+
+    private AnnotatedBeanProperty<PermissionTargetClass> targetClassProperty;
+
+    private AnnotatedBeanProperty<PermissionTarget> targetProperty;
+
+    private AnnotatedBeanProperty<PermissionAction> actionProperty;
+
+    private AnnotatedBeanProperty<Username> usernameProperty;
+
+    private boolean recipientIsUsername;
+
+    private String hasPermissionJpql;
+
+    private String listPermissionsJpql;
+
+    private String checkPermissionsJpql;
+
+    private String revokePermissionsJpql;
+
+
+    @PostConstruct
+    public void init() {
+        permissionClass = configuration.get().getPermissionClass();
+        if (permissionClass == null) {
+            return;
+        }
+        recipientProperty = new AnnotatedBeanProperty<>(permissionClass, PermissionRecipient.class);
+        targetClassProperty = new AnnotatedBeanProperty<>(permissionClass, PermissionTargetClass.class);
+        targetProperty = new AnnotatedBeanProperty<>(permissionClass, PermissionTarget.class);
+        actionProperty = new AnnotatedBeanProperty<>(permissionClass, PermissionAction.class);
+        recipientIsUsername = String.class.equals(recipientProperty.getPropertyType());
+        if (recipientIsUsername) {
+            usernameProperty = new AnnotatedBeanProperty<>(identityStoreConfiguration.get().getUserClass(), Username.class);
+        }
+
+        final String from = " from " + permissionClass.getName() + " p where p." + recipientProperty.getName() + " = :recipient and p."
+                + targetClassProperty.getName() + " = :targetClass";
+        hasPermissionJpql = "select count(p)" + from + " and p." + targetProperty.getName() + " = :target and p."
+                + actionProperty.getName() + " = :action";
+        listPermissionsJpql = "select p." + targetProperty.getName() + ", p." + actionProperty.getName() + from;
+        checkPermissionsJpql = listPermissionsJpql + " and p." + targetProperty.getName() + " in :targets";
+        revokePermissionsJpql = "delete" + from + " and p." + targetProperty.getName() + " in :targets and p." + actionProperty.getName()
+                + " in :actions";
+    }
+
 
     @Override
     public boolean hasPermission(final Object identity, final Object resource, final String permission) {
+        if (permissionClass == null || identity == null || resource == null) {
+            return false;
+        }
+        final Number count = (Number) entityManager.createQuery(hasPermissionJpql)
+                .setParameter("recipient", getRecipient(identity))
+                .setParameter("targetClass", getTargetClass(resource.getClass()))
+                .setParameter("target", getTarget(resource))
+                .setParameter("action", permission)
+                .getSingleResult();
+        return count.longValue() > 0;
+    }
+
 
-        return false;
+    /**
+     * Evaluates the checks with one query per resource class, or more where there are over {@link #MAX_TARGETS_PER_QUERY} resources of the
+     * class.
+     */
+    @Override
+    public void checkPermissions(final Object identity, final Collection<PermissionCheck> checks) {
+        if (permissionClass == null || identity == null) {
+            return;
+        }
+        final Object recipient = getRecipient(identity);
+        for (final Map.Entry<String, List<PermissionCheck>> entry : groupByResourceClass(checks).entrySet()) {
+            final Set<String> targets = new HashSet<>();
+            for (final PermissionCheck check : entry.getValue()) {
+                targets.add(getTarget(check.getResource()));
+            }
+            final Map<String, Set<String>> granted = new HashMap<>();
+            for (final Set<String> chunk : split(targets)) {
+                granted.putAll(toPermissionMap(entityManager.createQuery(checkPermissionsJpql)
+                        .setParameter("recipient", recipient)
+                        .setParameter("targetClass", entry.getKey())
+                        .setParameter("targets", chunk)
+                        .getResultList()));
+            }
+            for (final PermissionCheck check : entry.getValue()) {
+                final Set<String> actions = granted.get(getTarget(check.getResource()));
+                if (actions != null && actions.contains(check.getOperation())) {
+                    check.grant();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Loads every permission the identity holds on resources of the given class in a single query.
+     *
+     * @return a map from resource identifier to the permissions granted on that resource
+     */
+    public Map<String, Set<String>> getPermissions(final Object identity, final Class<?> resourceClass) {
+        if (permissionClass == null || identity == null) {
+            return new HashMap<>();
+        }
+        return toPermissionMap(entityManager.createQuery(listPermissionsJpql)
+                .setParameter("recipient", getRecipient(identity))
+                .setParameter("targetClass", getTargetClass(resourceClass))
+                .getResultList());
     }
 
 
     @Override
     public void grantPermission(final Object identity, final Object resource, final Object permission) {
-        // TODO Auto-generated method stub
+        final List<Object> resources = new ArrayList<>(1);
+        resources.add(resource);
+        final List<String> permissions = new ArrayList<>(1);
+        permissions.add(String.valueOf(permission));
+        grantPermissions(identity, resources, permissions);
+    }
+
+
+    /**
+     * Grants each of the permissions on each of the resources, skipping any which are already held or repeated in the arguments. Existing
+     * permissions are found with one query per resource class.
+     */
+    public void grantPermissions(final Object identity, final Collection<?> resources, final Collection<String> permissions) {
+        checkConfigured();
+        final Set<List<String>> keys = new HashSet<>();
+        final List<PermissionCheck> checks = new ArrayList<>(resources.size() * permissions.size());
+        for (final Object resource : resources) {
+            for (final String permission : permissions) {
+                if (keys.add(Arrays.asList(getTargetClass(resource.getClass()), getTarget(resource), permission))) {
+                    checks.add(new PermissionCheck(resource, permission));
+                }
+            }
+        }
+        checkPermissions(identity, checks);
 
+        final Object recipient = getRecipient(identity);
+        boolean changed = false;
+        for (final PermissionCheck check : checks) {
+            if (!check.isGranted()) {
+                entityManager.persist(createPermission(recipient, check.getResource(), check.getOperation()));
+                changed = true;
+            }
+        }
+        if (changed) {
+            permissionsChangedEvent.fire(new PermissionsChangedEvent(identity));
+        }
     }
 
 
     @Override
     public void revokePermission(final Object identity, final Object resource, final Object permission) {
-        // TODO Auto-generated method stub
+        final List<Object> resources = new ArrayList<>(1);
+        resources.add(resource);
+        final List<String> permissions = new ArrayList<>(1);
+        permissions.add(String.valueOf(permission));
+        revokePermissions(identity, resources, permissions);
+    }
+
+
+    /**
+     * Revokes each of the permissions on each of the resources with one bulk delete per resource class, split as for
+     * {@link #checkPermissions(Object, Collection)}.
+     */
+    public void revokePermissions(final Object identity, final Collection<?> resources, final Collection<String> permissions) {
+        checkConfigured();
+        if (resources.isEmpty() || permissions.isEmpty()) {
+            return;
+        }
+        final Object recipient = getRecipient(identity);
+        final Map<String, Set<String>> targetsByClass = new HashMap<>();
+        for (final Object resource : resources) {
+            final String targetClass = getTargetClass(resource.getClass());
+            Set<String> targets = targetsByClass.get(targetClass);
+            if (targets == null) {
+                targets = new HashSet<>();
+                targetsByClass.put(targetClass, targets);
+            }
+            targets.add(getTarget(resource));
+        }
+        for (final Map.Entry<String, Set<String>> entry : targetsByClass.entrySet()) {
+            for (final Set<String> chunk : split(entry.getValue())) {
+                entityManager.createQuery(revokePermissionsJpql)
+                        .setParameter("recipient", recipient)
+                        .setParameter("targetClass", entry.getKey())
+                        .setParameter("targets", chunk)
+                        .setParameter("actions", permissions)
+                        .executeUpdate();
+            }
+        }
+        permissionsChangedEvent.fire(new PermissionsChangedEvent(identity));
+    }
+
+
+    protected Object createPermission(final Object recipient, final Object resource, final String permission) {
+        try {
+            final Object entity = permissionClass.newInstance();
+            recipientProperty.setValue(entity, recipient);
+            targetClassProperty.setValue(entity, getTargetClass(resource.getClass()));
+            targetProperty.setValue(entity, getTarget(resource));
+            actionProperty.setValue(entity, permission);
+            return entity;
+        }
+        catch (InstantiationException | IllegalAccessException e) {
+            throw new IdentityManagementException("Could not create permission", e);
+        }
+    }
+
+
+    private void checkConfigured() {
+        if (permissionClass == null) {
+            throw new IdentityManagementException("Could not modify permissions, permissionClass not set");
+        }
+    }
+
+
+    /**
+     * The name of the entity class of a resource, looking past any subclass generated by the persistence provider for lazy loading.
+     */
+    private String getTargetClass(final Class<?> resourceClass) {
+        for (Class<?> current = resourceClass; current != null; current = current.getSuperclass()) {
+            if (current.isAnnotationPresent(Entity.class)) {
+                return current.getName();
+            }
+        }
+        return resourceClass.getName();
+    }
+
+
+    private Object getRecipient(final Object identity) {
+        if (recipientIsUsername && !(identity instanceof String)) {
+            return String.valueOf(usernameProperty.getValue(identity));
+        }
+        return identity;
+    }
+
+
+    private String getTarget(final Object resource) {
+        return String.valueOf(identityStore.getIdentifier(resource));
+    }
+
+
+    private Map<String, List<PermissionCheck>> groupByResourceClass(final Collection<PermissionCheck> checks) {
+        final Map<String, List<PermissionCheck>> groups = new HashMap<>();
+        for (final PermissionCheck check : checks) {
+            if (check.getResource() == null) {
+                continue;
+            }
+            final String targetClass = getTargetClass(check.getResource().getClass());
+            List<PermissionCheck> group = groups.get(targetClass);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(targetClass, group);
+            }
+            group.add(check);
+        }
+        return groups;
+    }
+
+
+    private static List<Set<String>> split(final Set<String> targets) {
+        if (targets.size() <= MAX_TARGETS_PER_QUERY) {
+            return Collections.singletonList(targets);
+        }
+        final List<Set<String>> chunks = new ArrayList<>();
+        Set<String> chunk = null;
+        for (final String target : targets) {
+            if (chunk == null || chunk.size() == MAX_TARGETS_PER_QUERY) {
+                chunk = new HashSet<>();
+                chunks.add(chunk);
+            }
+            chunk.add(target);
+        }
+        return chunks;
+    }
+
 
+    private Map<String, Set<String>> toPermissionMap(final List<?> rows) {
+        final Map<String, Set<String>> permissions = new HashMap<>();
+        for (final Object row : rows) {
+            final Object[] columns = (Object[]) row;
+            final String target = String.valueOf(columns[0]);
+            Set<String> actions = permissions.get(target);
+            if (actions == null) {
+                actions = new HashSet<>();
+                permissions.put(target, actions);
+            }
+            actions.add(String.valueOf(columns[1]));
+        }
+        return permissions;
     }
 }
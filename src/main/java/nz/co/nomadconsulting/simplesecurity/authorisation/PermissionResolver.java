@@ -15,8 +15,17 @@
  */
 package nz.co.nomadconsulting.simplesecurity.authorisation;
 
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.inject.Instance;
@@ -28,13 +37,16 @@ public class PermissionResolver {
     @Inject
     private Instance<PermissionResolverConfiguration> configuration;
 
+    @Inject
+    private SecurityMetrics metrics;
+
     private Set<PermissionStore> stores;
 
 
     @PostConstruct
     public void init() {
         final Set<PermissionStore> stores = configuration.get().getStores();
-        this.stores = new HashSet<>(); // TODO deal with isUnsatisfied
+        this.stores = new LinkedHashSet<>(); // TODO deal with isUnsatisfied
         if (stores != null) {
             this.stores.addAll(stores);
         }
@@ -42,13 +54,103 @@ public class PermissionResolver {
 
 
     public boolean hasPermission(final Object identity, final Object resource, final String permission) {
+        final boolean timed = metrics.isEnabled();
+        final boolean sampled = timed && isSampled();
+        final long start = timed ? System.nanoTime() : 0;
+        try {
+            for (final PermissionStore store : stores) {
+                final long storeStart = sampled ? System.nanoTime() : 0;
+                final boolean hasPermission = store.hasPermission(identity,
+                        resource, permission);
+                if (sampled) {
+                    metrics.recordPermissionStoreLatency(store, System.nanoTime() - storeStart);
+                }
+                metrics.recordPermissionCheck(store, 1, hasPermission ? 1 : 0);
+                if (hasPermission) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally {
+            if (timed) {
+                metrics.recordPermissionResolution(System.nanoTime() - start);
+            }
+        }
+    }
+
+
+    /**
+     * Evaluates every combination of the given resources and permissions for the identity. Stores implementing {@link BatchPermissionStore} are
+     * asked to evaluate all outstanding checks at once, other stores are asked once per check. Checks granted by one store are not passed on
+     * to the next.
+     *
+     * @param identity
+     * @param resources
+     * @param permissions
+     * @return a map from each resource to the set of permissions granted on it. Every resource has an entry, empty if nothing was granted.
+     */
+    public Map<Object, Set<String>> hasPermissions(final Object identity, final Collection<?> resources,
+            final Collection<String> permissions) {
+        final List<PermissionCheck> checks = new ArrayList<>(resources.size() * permissions.size());
+        for (final Object resource : resources) {
+            for (final String permission : permissions) {
+                checks.add(new PermissionCheck(resource, permission));
+            }
+        }
+        List<PermissionCheck> pending = checks;
+
+        final boolean timed = metrics.isEnabled();
+        final boolean sampled = timed && isSampled();
+        final long start = timed ? System.nanoTime() : 0;
         for (final PermissionStore store : stores) {
-            final boolean hasPermission = store.hasPermission(identity,
-                    resource, permission);
-            if (hasPermission) {
-                return true;
+            if (pending.isEmpty()) {
+                break;
+            }
+            final long storeStart = sampled ? System.nanoTime() : 0;
+            if (store instanceof BatchPermissionStore) {
+                ((BatchPermissionStore) store).checkPermissions(identity, pending);
+            }
+            else {
+                for (final PermissionCheck check : pending) {
+                    if (store.hasPermission(identity, check.getResource(), check.getOperation())) {
+                        check.grant();
+                    }
+                }
+            }
+            if (sampled) {
+                metrics.recordPermissionStoreLatency(store, System.nanoTime() - storeStart);
+            }
+            final List<PermissionCheck> remaining = new ArrayList<>(pending.size());
+            for (final PermissionCheck check : pending) {
+                if (!check.isGranted()) {
+                    remaining.add(check);
+                }
+            }
+            metrics.recordPermissionCheck(store, pending.size(), pending.size() - remaining.size());
+            pending = remaining;
+        }
+        if (timed) {
+            metrics.recordPermissionResolution(System.nanoTime() - start);
+        }
+
+        final Map<Object, Set<String>> results = new HashMap<>();
+        for (final Object resource : resources) {
+            results.put(resource, new HashSet<String>());
+        }
+        for (final PermissionCheck check : checks) {
+            if (check.isGranted()) {
+                results.get(check.getResource()).add(check.getOperation());
             }
         }
-        return false;
+        return results;
+    }
+
+
+    /**
+     * @return true if the stores consulted by this check should each be timed, see {@link SecurityMetrics#PERMISSION_STORE_SAMPLE_RATE}
+     */
+    private static boolean isSampled() {
+        return ThreadLocalRandom.current().nextInt(SecurityMetrics.PERMISSION_STORE_SAMPLE_RATE) == 0;
     }
 }
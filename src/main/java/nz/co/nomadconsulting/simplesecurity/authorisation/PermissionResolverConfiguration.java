@@ -22,8 +22,28 @@ public class PermissionResolverConfiguration {
 
     private Set<PermissionStore> stores;
 
+    private Class<?> permissionClass;
+
 
     public Set<PermissionStore> getStores() {
         return stores;
     }
+
+
+    public void setStores(final Set<PermissionStore> stores) {
+        this.stores = stores;
+    }
+
+
+    /**
+     * The entity class used by the {@link JpaPermissionStore} to hold permissions.
+     */
+    public Class<?> getPermissionClass() {
+        return permissionClass;
+    }
+
+
+    public void setPermissionClass(final Class<?> permissionClass) {
+        this.permissionClass = permissionClass;
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.authorisation;
+
+/**
+ * Fired by a {@link PermissionStore} when permissions are granted or revoked, so that anything remembering earlier decisions, such as the
+ * {@link nz.co.nomadconsulting.simplesecurity.DecisionCache}, can forget them.
+ *
+ * @author craig
+ *
+ */
+public class PermissionsChangedEvent {
+
+    private final Object identity;
+
+
+    public PermissionsChangedEvent(final Object identity) {
+        this.identity = identity;
+    }
+
+
+    /**
+     * @return the identity whose permissions changed
+     */
+    public Object getIdentity() {
+        return identity;
+    }
+}
@@ -15,34 +15,106 @@
  */
 package nz.co.nomadconsulting.simplesecurity.authorisation;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 
 import org.kie.api.KieBase;
 import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
 
 
-public class RuleBasedPermissionStore implements PermissionStore {
+/**
+ * A {@link PermissionStore} which grants permissions using Drools rules. Each check is inserted into a session as a {@link PermissionCheck}
+ * along with the identity and rules call {@link PermissionCheck#grant()} to grant it.<br/>
+ * By default checks are evaluated with a {@link StatelessKieSession} which is created once and reused. Rules which rely on stateful session
+ * behaviour can be supported by calling {@link #setStateless(boolean)} with false, in which case a new {@link KieSession} is created for each
+ * evaluation and disposed of afterwards.
+ */
+public class RuleBasedPermissionStore implements BatchPermissionStore {
 
     @Inject
     private Instance<KieBase> securityRules;
 
+    private boolean stateless = true;
+
+    private volatile StatelessKieSession statelessSession;
+
 
     @Override
     public boolean hasPermission(final Object identity, final Object resource, final String permission) {
-        if (securityRules.isUnsatisfied()) {
-            return false;
+        final PermissionCheck check = new PermissionCheck(resource, permission);
+        checkPermissions(identity, Collections.singletonList(check));
+        return check.isGranted();
+    }
+
+
+    /**
+     * Evaluates all of the given checks for the identity in a single session and a single firing of the rules. Rules placed in an
+     * activation-group will only fire once per evaluation, not once per check.
+     *
+     * @param identity
+     * @param checks
+     */
+    @Override
+    public void checkPermissions(final Object identity, final Collection<PermissionCheck> checks) {
+        if (securityRules.isUnsatisfied() || checks.isEmpty()) {
+            return;
         }
-        
-        final KieSession session = securityRules.get().newKieSession();
 
-        final PermissionCheck check = new PermissionCheck(resource, permission);
+        final List<Object> facts = new ArrayList<>(checks.size() + 1);
+        if (identity != null) {
+            facts.add(identity);
+        }
+        facts.addAll(checks);
 
-        session.insert(identity);
-        session.insert(check);
-        session.fireAllRules();
+        if (stateless) {
+            getStatelessSession().execute(facts);
+        }
+        else {
+            final KieSession session = securityRules.get().newKieSession();
+            try {
+                for (final Object fact : facts) {
+                    session.insert(fact);
+                }
+                session.fireAllRules();
+            }
+            finally {
+                session.dispose();
+            }
+        }
+    }
 
-        return check.isGranted();
+
+    /**
+     * Creates the session on first use, once, as this store is shared between threads.
+     */
+    private StatelessKieSession getStatelessSession() {
+        StatelessKieSession session = statelessSession;
+        if (session == null) {
+            synchronized (this) {
+                session = statelessSession;
+                if (session == null) {
+                    session = securityRules.get().newStatelessKieSession();
+                    statelessSession = session;
+                }
+            }
+        }
+        return session;
+    }
+
+
+    public boolean isStateless() {
+        return stateless;
+    }
+
+
+    public void setStateless(final boolean stateless) {
+        this.stateless = stateless;
     }
 
 
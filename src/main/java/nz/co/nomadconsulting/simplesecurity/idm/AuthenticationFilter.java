@@ -16,8 +16,11 @@
 package nz.co.nomadconsulting.simplesecurity.idm;
 
 import nz.co.nomadconsulting.simplesecurity.Identity;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics.FilterDecision;
 
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -32,19 +35,33 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 
+/**
+ * Sends requests for secured pages from users who are not logged in to the {@link UnAuthenticatedResponse}. Pages matched by the
+ * {@link UrlPatternMatcher} are not secured and are passed straight through without looking up the {@link Identity} or touching the
+ * session. The outcome of matching is remembered for up to {@link #setMatchCacheSize(int)} distinct servlet paths, evicting approximately
+ * the least recently requested first, so repeat requests for the same path are answered with a lock free map lookup.
+ *
+ * @author craig
+ *
+ */
 @ApplicationScoped
 public abstract class AuthenticationFilter implements Filter {
 
+    private static final int DEFAULT_MATCH_CACHE_SIZE = 1000;
+
     @Inject
     private Logger log;
 
     @Inject
     private Instance<Identity> identityInstance;
 
-    private UrlPatternMatcher urlPatternMatcher;
+    @Inject
+    private SecurityMetrics metrics;
 
     private UnAuthenticatedResponse unauthenticatedResponse;
 
+    private volatile Matching matching = new Matching(null, DEFAULT_MATCH_CACHE_SIZE);
+
 
     @Override
     public void doFilter(final ServletRequest request,
@@ -57,33 +74,72 @@ public abstract class AuthenticationFilter implements Filter {
         final HttpServletRequest httpRequest = (HttpServletRequest) request;
         final HttpServletResponse httpResponse = (HttpServletResponse) response;
 
-        final Identity identity = identityInstance.get();
-
-        if (identity.isLoggedIn() || isNotSecurePage((HttpServletRequest) request)) {
+        if (isNotSecurePage(httpRequest)) {
+            metrics.recordFilterDecision(FilterDecision.PUBLIC);
+            chain.doFilter(request, response);
+        }
+        else if (isLoggedIn(httpRequest)) {
+            metrics.recordFilterDecision(FilterDecision.AUTHENTICATED);
             chain.doFilter(request, response);
         }
         else {
+            metrics.recordFilterDecision(FilterDecision.REJECTED);
             unauthenticatedResponse.respond(httpRequest, httpResponse);
         }
     }
 
 
+    /**
+     * Only consulted for secured pages. The {@link Identity} lives in the session so without one the user cannot be logged in, and looking the
+     * identity up would create a session for an anonymous request.
+     */
+    protected boolean isLoggedIn(final HttpServletRequest request) {
+        if (request.getSession(false) == null) {
+            return false;
+        }
+        return identityInstance.get().isLoggedIn();
+    }
+
+
     protected boolean isNotSecurePage(final HttpServletRequest request) {
-        final StringBuffer urlBuffer = new StringBuffer(request.getServletPath());
-//        if (request.getQueryString() != null) {
-//            urlBuffer.append("?").append(request.getQueryString());
-//        }
-        final String requestUri = urlBuffer.toString();
-        final boolean matches = urlPatternMatcher.matches(requestUri);
-        log.fine("matching incoming requestUri " + requestUri + ": " + matches);
+        final String servletPath = request.getServletPath();
+        final Matching current = matching;
+        final UrlMatchCache cache = current.cache;
+        if (cache != null) {
+            final Boolean cached = cache.get(servletPath);
+            metrics.recordCacheAccess(SecurityMetrics.Cache.URL_MATCH, cached != null);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final boolean matches = current.matcher.matches(servletPath);
+        if (cache != null) {
+            cache.put(servletPath, matches);
+        }
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("matching incoming servletPath " + servletPath + ": " + matches);
+        }
         return matches;
     }
 
 
-    protected void setUrlPatternMatcher(final UrlPatternMatcher urlPatternMatcher) {
-        this.urlPatternMatcher = urlPatternMatcher;
+    /**
+     * Replaces the matcher along with an empty cache, so that no request pairs the new matcher with results remembered from the old one.
+     */
+    protected synchronized void setUrlPatternMatcher(final UrlPatternMatcher urlPatternMatcher) {
+        matching = new Matching(urlPatternMatcher, matching.cacheSize);
+    }
+
+
+    /**
+     * Sets the number of distinct servlet paths whose match result is remembered. Once the cache is full a path which has not been requested
+     * recently is forgotten to make room, see {@link UrlMatchCache}. Zero disables the cache. Defaults to 1000.
+     */
+    protected synchronized void setMatchCacheSize(final int matchCacheSize) {
+        matching = new Matching(matching.matcher, matchCacheSize);
     }
-    
+
 
     protected void setUnAuthenticatedResponse(final JsfAwareRedirectingUnAuthenticatedResponse responder) {
         unauthenticatedResponse = responder;
@@ -93,4 +149,23 @@ public abstract class AuthenticationFilter implements Filter {
     @Override
     public void destroy() {
     }
+
+    /**
+     * The matcher and the cache of its results, read on every request and only ever replaced together, with a single write.
+     */
+    private static final class Matching {
+
+        private final UrlPatternMatcher matcher;
+
+        private final int cacheSize;
+
+        private final UrlMatchCache cache;
+
+
+        Matching(final UrlPatternMatcher matcher, final int cacheSize) {
+            this.matcher = matcher;
+            this.cacheSize = cacheSize;
+            cache = cacheSize > 0 ? new UrlMatchCache(cacheSize) : null;
+        }
+    }
 }
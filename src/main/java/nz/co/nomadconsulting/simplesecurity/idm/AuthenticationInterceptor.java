@@ -16,10 +16,15 @@
 package nz.co.nomadconsulting.simplesecurity.idm;
 
 import nz.co.nomadconsulting.simplesecurity.Identity;
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
 import nz.co.nomadconsulting.simplesecurity.annotation.Authenticated;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics;
 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.interceptor.AroundInvoke;
 import javax.interceptor.Interceptor;
@@ -28,6 +33,14 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response.Status;
 
 
+/**
+ * Rejects calls to {@link Authenticated} methods with {@link Status#UNAUTHORIZED} unless the current {@link Identity} is logged in. Calls,
+ * rejections and the latency of intercepted calls are recorded in the {@link SecurityMetrics} rather than logged. When the logger is enabled
+ * for FINE, about one call in every {@link IdentityStoreConfiguration#getTraceSampleRate()} is traced.
+ *
+ * @author craig
+ *
+ */
 @Interceptor
 @Authenticated
 public class AuthenticationInterceptor {
@@ -38,22 +51,39 @@ public class AuthenticationInterceptor {
     @Inject
     private Identity identity;
 
+    @Inject
+    private SecurityMetrics metrics;
+
+    @Inject
+    private Instance<IdentityStoreConfiguration> configuration;
+
 
     @AroundInvoke
     public Object authenticationCheck(final InvocationContext ctx)
             throws Exception {
-
-        logger.info("LoggingInterceptor - before method invoke: "
-                + ctx.getMethod().getName());
-
-        if (!identity.isLoggedIn()) {
-            logger.info("Call made to routine when not logged in");
-            throw new WebApplicationException(Status.UNAUTHORIZED);
+        final boolean timed = metrics.isEnabled();
+        final long start = timed ? System.nanoTime() : 0;
+        final boolean trace = logger.isLoggable(Level.FINE)
+                && ThreadLocalRandom.current().nextInt(Math.max(1, configuration.get().getTraceSampleRate())) == 0;
+        boolean rejected = false;
+        try {
+            if (!identity.isLoggedIn()) {
+                rejected = true;
+                if (trace) {
+                    logger.fine("Call to " + ctx.getMethod().getName() + " rejected, not logged in");
+                }
+                throw new WebApplicationException(Status.UNAUTHORIZED);
+            }
+            return ctx.proceed();
+        }
+        finally {
+            if (timed) {
+                final long elapsed = System.nanoTime() - start;
+                metrics.recordInterceptedCall(SecurityMetrics.Interceptor.AUTHENTICATION, rejected, elapsed);
+                if (trace) {
+                    logger.fine("Call to " + ctx.getMethod().getName() + " took " + elapsed + "ns");
+                }
+            }
         }
-
-        logger.info("LoggingInterceptor - after method invoke: "
-                + ctx.getMethod().getName());
-
-        return ctx.proceed();
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import java.util.Map;
+
+
+/**
+ * An {@link IdentityStore} which can create many users at once, for example hashing their passwords in parallel and inserting them in
+ * batches. {@link IdentityManager#createUsers(Map, CreateUsersListener)} uses this in preference to calling
+ * {@link #createUser(String, String)} once per user.
+ *
+ * @author craig
+ *
+ */
+public interface BatchIdentityStore extends IdentityStore {
+
+    /**
+     * Creates many users at once, e.g. when onboarding. Users which cannot be created are reported in the result rather than failing the
+     * others.
+     *
+     * @param users
+     *            plain text passwords keyed by username, a null password creates a disabled user as {@link #createUser(String, String)} does
+     * @param listener
+     *            told as each batch completes, may be null
+     */
+    CreateUsersResult createUsers(final Map<String, String> users, final CreateUsersListener listener);
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The outcome of {@link IdentityManager#createUsers(Map, CreateUsersListener)}: the usernames which were created and, for each one which was not,
+ * the reason why.
+ *
+ * @author craig
+ *
+ */
+public class CreateUsersResult {
+
+    private final List<String> created = new ArrayList<>();
+
+    private final Map<String, IdentityManagementException> failures = new LinkedHashMap<>();
+
+
+    public void addCreated(final String username) {
+        created.add(username);
+    }
+
+
+    public void addFailure(final String username, final IdentityManagementException failure) {
+        failures.put(username, failure);
+    }
+
+
+    /**
+     * @return the usernames created, in the order they were given
+     */
+    public List<String> getCreated() {
+        return Collections.unmodifiableList(created);
+    }
+
+
+    /**
+     * @return the usernames which were not created, e.g. because they already exist, with the reason
+     */
+    public Map<String, IdentityManagementException> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+
+    /**
+     * @return true if every user was created
+     */
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+}
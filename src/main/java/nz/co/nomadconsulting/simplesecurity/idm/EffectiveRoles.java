@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A flattened snapshot of all of the roles a user holds, including those inherited transitively through {@link RoleGroup}s, built by
+ * {@link IdentityManager#buildEffectiveRoles(Object)}. Roles without a scope are held by name and scoped roles by name, scope class and scope
+ * identifier so that {@link IdentityManager#hasRole(Object, Object, Object)} can answer with a hash lookup rather than walking the user's roles.
+ *
+ * @author craig
+ *
+ */
+public class EffectiveRoles {
+
+    private final Set<Object> globalRoles = new HashSet<>();
+
+    private final Set<Object> scopedRoleNames = new HashSet<>();
+
+    private final Map<ScopedRole, List<Object>> scopedRoles = new HashMap<>();
+
+
+    void addGlobalRole(final Object name) {
+        globalRoles.add(name);
+    }
+
+
+    void addScopedRole(final Object name, final Object scopeClass, final Object scopeId) {
+        scopedRoleNames.add(name);
+        final ScopedRole key = new ScopedRole(name, scopeClass, scopeId.toString());
+        List<Object> scopeIds = scopedRoles.get(key);
+        if (scopeIds == null) {
+            scopeIds = new ArrayList<>(1);
+            scopedRoles.put(key, scopeIds);
+        }
+        scopeIds.add(scopeId);
+    }
+
+
+    /**
+     * @return true if the user holds the named role without a scope. Such roles apply regardless of the scope requested.
+     */
+    public boolean hasGlobalRole(final Object name) {
+        return globalRoles.contains(name);
+    }
+
+
+    /**
+     * @return true if the user holds the named role for at least one scope
+     */
+    public boolean hasScopedRole(final Object name) {
+        return scopedRoleNames.contains(name);
+    }
+
+
+    /**
+     * @return true if the user holds the named role for the scope identified by the given class and identifier. Identifiers are compared with
+     *         equals when they are of the same type and by their string form otherwise.
+     */
+    public boolean hasScopedRole(final Object name, final Class<?> scopeClass, final Object identifier) {
+        final List<Object> scopeIds = scopedRoles.get(new ScopedRole(name, scopeClass, identifier.toString()));
+        if (scopeIds != null) {
+            for (final Object scopeId : scopeIds) {
+                if (!identifier.getClass().equals(scopeId.getClass()) || scopeId.equals(identifier)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static class ScopedRole {
+
+        private final Object name;
+
+        private final Object scopeClass;
+
+        private final String scopeId;
+
+
+        ScopedRole(final Object name, final Object scopeClass, final String scopeId) {
+            this.name = name;
+            this.scopeClass = scopeClass;
+            this.scopeId = scopeId;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return (name.hashCode() * 31 + scopeClass.hashCode()) * 31 + scopeId.hashCode();
+        }
+
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ScopedRole)) {
+                return false;
+            }
+            final ScopedRole other = (ScopedRole) obj;
+            return name.equals(other.name) && scopeClass.equals(other.scopeClass) && scopeId.equals(other.scopeId);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+
+/**
+ * Holds an {@link EffectiveRoles} snapshot for each logged in user. A snapshot is built when the {@link LoggedIn} event is fired and discarded
+ * when the user logs out. Granting or revoking a role through the {@link IdentityManager} (or any {@link PrePersistRole} event) invalidates the
+ * snapshots of that username and they are rebuilt on the next role check from the user as found again by the {@link IdentityStore}, so that
+ * grants made through another persistence context are seen and the roles of the session's detached user are never loaded lazily.<br/>
+ * Role checks read the snapshots from a concurrent map without locking. Logging in and out, invalidating and publishing a rebuilt snapshot
+ * take a lock, and snapshots are indexed by username so that invalidating one user only touches that user's sessions. A rebuild happens
+ * outside the lock and is only kept if the snapshot was not invalidated again meanwhile, so a concurrent grant or revoke is never lost.<br/>
+ * Users are held weakly so snapshots of sessions that expire without logging out do not accumulate; once such a user has been collected its
+ * snapshot and its entry in the username index are dropped the next time the cache is updated.
+ *
+ * @author craig
+ *
+ */
+@ApplicationScoped
+public class EffectiveRolesCache {
+
+    @Inject
+    private IdentityManager identityManager;
+
+    @Inject
+    private IdentityStore store;
+
+    private final ConcurrentMap<Object, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Guarded by its own lock, which is also held while the snapshots are changed.
+     */
+    private final Map<Object, Set<UserKey>> usersByUsername = new HashMap<>();
+
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+
+    public void loggedInEventListener(@Observes @LoggedIn final IdentityStoreEvent event) {
+        final Object user = event.getUser();
+        final Object username = identityManager.getUsername(user);
+        final EffectiveRoles effectiveRoles = identityManager.buildEffectiveRoles(user);
+        final UserKey key = new UserKey(user, username, collected);
+        synchronized (usersByUsername) {
+            expungeCollectedUsers();
+            final Snapshot previous = snapshots.remove(new LookupKey(user));
+            if (previous != null) {
+                removeFromIndex(previous.key);
+            }
+            snapshots.put(key, new Snapshot(key, effectiveRoles));
+            Set<UserKey> users = usersByUsername.get(username);
+            if (users == null) {
+                users = new HashSet<>();
+                usersByUsername.put(username, users);
+            }
+            users.add(key);
+        }
+    }
+
+
+    public void loggedOutEventListener(@Observes @LoggedOut final IdentityStoreEvent event) {
+        final Object user = event.getUser();
+        synchronized (usersByUsername) {
+            expungeCollectedUsers();
+            final Snapshot snapshot = snapshots.remove(new LookupKey(user));
+            if (snapshot != null) {
+                removeFromIndex(snapshot.key);
+            }
+        }
+    }
+
+
+    public void prePersistRoleEventListener(@Observes @PrePersistRole final IdentityStoreEvent event) {
+        invalidate(identityManager.getUsername(event.getUser()));
+    }
+
+
+    public void roleRevokedEventListener(@Observes @RoleRevoked final IdentityStoreEvent event) {
+        invalidate(identityManager.getUsername(event.getUser()));
+    }
+
+
+    /**
+     * @return the snapshot for the given user, rebuilding it if it has been invalidated, or null if the user has not logged in
+     */
+    public EffectiveRoles get(final Object user) {
+        final Snapshot snapshot = snapshots.get(new LookupKey(user));
+        if (snapshot == null) {
+            return null;
+        }
+        final EffectiveRoles current = snapshot.effectiveRoles;
+        if (current != null) {
+            return current;
+        }
+        final long version = snapshot.version;
+        final EffectiveRoles effectiveRoles = rebuild(user, snapshot.key.username);
+        synchronized (usersByUsername) {
+            if (snapshot.version == version && snapshots.get(snapshot.key) == snapshot) {
+                snapshot.effectiveRoles = effectiveRoles;
+            }
+        }
+        return effectiveRoles;
+    }
+
+
+    /**
+     * Builds the roles from the user as currently stored. A user who can no longer be found holds no roles; without a username the session's
+     * own user is all there is to go on.
+     */
+    private EffectiveRoles rebuild(final Object user, final Object username) {
+        if (username == null) {
+            return identityManager.buildEffectiveRoles(user);
+        }
+        final Object current = store.lookupUser(username.toString());
+        if (current == null) {
+            return new EffectiveRoles();
+        }
+        return identityManager.buildEffectiveRoles(current);
+    }
+
+
+    /**
+     * Invalidates the snapshot of any logged in user with the given username. If the username is not known every snapshot is invalidated.
+     */
+    public void invalidate(final Object username) {
+        if (username == null) {
+            invalidateAll();
+            return;
+        }
+        synchronized (usersByUsername) {
+            expungeCollectedUsers();
+            final Set<UserKey> users = usersByUsername.get(username);
+            if (users == null) {
+                return;
+            }
+            for (final UserKey key : users) {
+                final Snapshot snapshot = snapshots.get(key);
+                if (snapshot != null) {
+                    snapshot.invalidate();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return the number of usernames in the index, for tests
+     */
+    int getIndexedUsernameCount() {
+        synchronized (usersByUsername) {
+            expungeCollectedUsers();
+            return usersByUsername.size();
+        }
+    }
+
+
+    /**
+     * Must be called holding the lock on the username index.
+     */
+    private void removeFromIndex(final UserKey key) {
+        final Set<UserKey> users = usersByUsername.get(key.username);
+        if (users != null && users.remove(key) && users.isEmpty()) {
+            usersByUsername.remove(key.username);
+        }
+    }
+
+
+    /**
+     * Drops the snapshots of sessions which expired without logging out, and their users from the username index. Must be called holding the
+     * lock on the username index.
+     */
+    private void expungeCollectedUsers() {
+        Reference<?> reference;
+        while ((reference = collected.poll()) != null) {
+            final UserKey key = (UserKey) reference;
+            snapshots.remove(key);
+            removeFromIndex(key);
+        }
+    }
+
+
+    public void invalidateAll() {
+        synchronized (usersByUsername) {
+            for (final Snapshot snapshot : snapshots.values()) {
+                snapshot.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Holds a logged in user weakly, enqueued once the user has been collected. Keys are equal when their users are, as with a
+     * <code>WeakHashMap</code>; a collected key is only equal to itself.
+     */
+    private static final class UserKey extends WeakReference<Object> {
+
+        private final Object username;
+
+        private final int hash;
+
+
+        UserKey(final Object user, final Object username, final ReferenceQueue<Object> queue) {
+            super(user, queue);
+            this.username = username;
+            hash = user.hashCode();
+        }
+
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof UserKey)) {
+                return false;
+            }
+            final Object user = get();
+            return user != null && user.equals(((UserKey) other).get());
+        }
+    }
+
+    /**
+     * Finds the snapshot of a user without creating a weak reference on every role check.
+     */
+    private static final class LookupKey {
+
+        private final Object user;
+
+
+        LookupKey(final Object user) {
+            this.user = user;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return user.hashCode();
+        }
+
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof UserKey && user.equals(((UserKey) other).get());
+        }
+    }
+
+    /**
+     * The roles of one session, null once invalidated. The version is advanced on every invalidation so that a rebuild which started before it
+     * is not published. Read without locking, written holding the lock on the username index.
+     */
+    private static final class Snapshot {
+
+        private final UserKey key;
+
+        private volatile EffectiveRoles effectiveRoles;
+
+        private volatile long version;
+
+
+        Snapshot(final UserKey key, final EffectiveRoles effectiveRoles) {
+            this.key = key;
+            this.effectiveRoles = effectiveRoles;
+        }
+
+
+        /**
+         * The version is advanced first so that a reader which sees the roles cleared also sees the new version.
+         */
+        void invalidate() {
+            version++;
+            effectiveRoles = null;
+        }
+    }
+}
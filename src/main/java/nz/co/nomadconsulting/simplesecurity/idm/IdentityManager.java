@@ -16,15 +16,27 @@
 package nz.co.nomadconsulting.simplesecurity.idm;
 
 import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics;
 import nz.co.nomadconsulting.simplesecurity.authorisation.RoleName;
 import nz.co.nomadconsulting.simplesecurity.util.AnnotatedBeanProperty;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
+import javax.persistence.PersistenceException;
 
 
 /**
@@ -42,6 +54,16 @@ public class IdentityManager {
     @Inject
     private Instance<IdentityStoreConfiguration> configuration;
 
+    @Inject
+    private EffectiveRolesCache effectiveRolesCache;
+
+    @Inject
+    private SecurityMetrics metrics;
+
+    private Class<?> roleClass;
+
+    private AnnotatedBeanProperty<Username> usernameProperty;
+
     private AnnotatedBeanProperty<Roles> rolesProperty;
 
     private AnnotatedBeanProperty<RoleName> roleNameProperty;
@@ -56,9 +78,10 @@ public class IdentityManager {
     @PostConstruct
     public void init() {
         final Class<?> userClass = configuration.get().getUserClass();
+        usernameProperty = new AnnotatedBeanProperty<>(userClass, Username.class);
         rolesProperty = new AnnotatedBeanProperty<>(userClass, Roles.class);
 
-        final Class<?> roleClass = configuration.get().getRoleClass();
+        roleClass = configuration.get().getRoleClass();
         roleNameProperty = new AnnotatedBeanProperty<>(roleClass,
                 RoleName.class);
         roleScopeClassProperty = new AnnotatedBeanProperty<>(roleClass,
@@ -77,7 +100,41 @@ public class IdentityManager {
      * @return
      */
     public boolean authenticate(final String username, final String password) {
-        return store.authenticate(username, password);
+        if (!metrics.isEnabled()) {
+            return store.authenticate(username, password);
+        }
+        final long start = System.nanoTime();
+        final boolean success = store.authenticate(username, password);
+        metrics.recordAuthentication(success, System.nanoTime() - start);
+        return success;
+    }
+
+
+    /**
+     * Authenticates the user with the password hashed on a bounded pool of threads rather than the calling thread, see
+     * {@link AsyncIdentityStore#authenticateAsync(String, String)}. If the store is not an {@link AsyncIdentityStore} the user is
+     * authenticated on the calling thread and the returned future is already done. The authentication is recorded in the
+     * {@link SecurityMetrics} when its outcome is first retrieved.
+     *
+     * @param username
+     * @param password
+     * @return the outcome of the authentication
+     * @throws IdentityManagementException
+     *             if too many authentication attempts are already waiting
+     */
+    public Future<Boolean> authenticateAsync(final String username, final String password) {
+        if (store instanceof AsyncIdentityStore) {
+            return new RecordedAuthentication(((AsyncIdentityStore) store).authenticateAsync(username, password), System.nanoTime());
+        }
+        final FutureTask<Boolean> result = new FutureTask<>(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return authenticate(username, password);
+            }
+        });
+        result.run();
+        return result;
     }
 
 
@@ -92,6 +149,60 @@ public class IdentityManager {
     }
 
 
+    /**
+     * Creates users in bulk, see {@link BatchIdentityStore#createUsers(Map, CreateUsersListener)}. If the store is not a
+     * {@link BatchIdentityStore} the users are created one at a time with {@link IdentityStore#createUser(String, String)}, skipping those
+     * which already exist, and the listener is told after every {@link IdentityStoreConfiguration#getCreateUsersBatchSize()} users. A user
+     * which the store fails to create is reported in the result and the rest are still attempted, though a {@link PersistenceException} may
+     * have left the transaction marked for rollback.
+     *
+     * @param users
+     *            plain text passwords keyed by username
+     * @param listener
+     *            told as each batch completes, may be null
+     * @return the users created and those which could not be
+     */
+    public CreateUsersResult createUsers(final Map<String, String> users, final CreateUsersListener listener) {
+        if (store instanceof BatchIdentityStore) {
+            return ((BatchIdentityStore) store).createUsers(users, listener);
+        }
+        final int batchSize = Math.max(1, configuration.get().getCreateUsersBatchSize());
+        final CreateUsersResult result = new CreateUsersResult();
+        int processed = 0;
+        for (final Map.Entry<String, String> entry : users.entrySet()) {
+            if (userExists(entry.getKey())) {
+                result.addFailure(entry.getKey(), new IdentityManagementException("Could not create account, already exists"));
+            }
+            else {
+                createUser(entry.getKey(), entry.getValue(), result);
+            }
+            processed++;
+            if (listener != null && (processed % batchSize == 0 || processed == users.size())) {
+                listener.batchCompleted(processed, users.size());
+            }
+        }
+        return result;
+    }
+
+
+    private void createUser(final String username, final String password, final CreateUsersResult result) {
+        try {
+            if (store.createUser(username, password)) {
+                result.addCreated(username);
+            }
+            else {
+                result.addFailure(username, new IdentityManagementException("Could not create account"));
+            }
+        }
+        catch (final IdentityManagementException e) {
+            result.addFailure(username, e);
+        }
+        catch (final PersistenceException e) {
+            result.addFailure(username, new IdentityManagementException("Could not create account", e));
+        }
+    }
+
+
     /**
      *
      * @param name
@@ -115,6 +226,7 @@ public class IdentityManager {
      */
     public void grantRole(final Object user, final Object role) {
         store.grantRole(user, role);
+        effectiveRolesCache.invalidate(getUsername(user));
     }
 
 
@@ -126,6 +238,7 @@ public class IdentityManager {
      */
     public void grantRole(final String user, final String role, final Object scope) {
         store.grantRole(user, role, scope);
+        effectiveRolesCache.invalidate(user);
     }
 
 
@@ -136,6 +249,7 @@ public class IdentityManager {
      */
     public void revokeRole(final String user, final String role) {
         store.revokeRole(user, role, null);
+        effectiveRolesCache.invalidate(user);
     }
 
     
@@ -147,6 +261,7 @@ public class IdentityManager {
      */
     public void revokeRole(final String user, final String role, final Object scope) {
         store.revokeRole(user, role, scope);
+        effectiveRolesCache.invalidate(user);
     }
     
     
@@ -158,6 +273,7 @@ public class IdentityManager {
      */
     public void revokeRole(final String user, final Object role, final Object scope) {
         store.revokeRole(user, role, scope);
+        effectiveRolesCache.invalidate(user);
     }
 
 
@@ -173,6 +289,10 @@ public class IdentityManager {
 
 
     /**
+     * Checks whether the user holds the requested role, either directly or through a {@link RoleGroup}. For a logged in user the check is
+     * answered from the {@link EffectiveRoles} snapshot held by the {@link EffectiveRolesCache}, otherwise the user's roles are walked. Every
+     * check is counted but only one in {@link SecurityMetrics#ROLE_CHECK_SAMPLE_RATE} is timed, as reading the clock twice would take longer
+     * than answering from the snapshot.
      *
      * @param user
      * @param requestedRole
@@ -183,6 +303,29 @@ public class IdentityManager {
         if (user == null) {
             return false;
         }
+        if (!metrics.isEnabled()) {
+            return checkRoles(user, requestedRole, scope);
+        }
+        final boolean granted;
+        if (ThreadLocalRandom.current().nextInt(SecurityMetrics.ROLE_CHECK_SAMPLE_RATE) == 0) {
+            final long start = System.nanoTime();
+            granted = checkRoles(user, requestedRole, scope);
+            metrics.recordRoleCheckLatency(System.nanoTime() - start);
+        }
+        else {
+            granted = checkRoles(user, requestedRole, scope);
+        }
+        metrics.recordRoleCheck(granted);
+        return granted;
+    }
+
+
+    private boolean checkRoles(final Object user, final Object requestedRole, final Object scope) {
+        final EffectiveRoles effectiveRoles = effectiveRolesCache.get(user);
+        metrics.recordCacheAccess(SecurityMetrics.Cache.EFFECTIVE_ROLES, effectiveRoles != null);
+        if (effectiveRoles != null) {
+            return hasEffectiveRole(effectiveRoles, requestedRole, scope);
+        }
         final Collection<?> roles = (Collection<?>) rolesProperty
                 .getValue(user);
         for (final Object usersRole : roles) {
@@ -199,6 +342,81 @@ public class IdentityManager {
     }
 
 
+    private boolean hasEffectiveRole(final EffectiveRoles effectiveRoles, final Object requestedRole, final Object scope) {
+        final Object requestedName = roleClass.isInstance(requestedRole) ? roleNameProperty.getValue(requestedRole) : requestedRole;
+        if (effectiveRoles.hasGlobalRole(requestedName)) {
+            return true;
+        }
+        if (scope == null || !effectiveRoles.hasScopedRole(requestedName)) {
+            return false;
+        }
+        final Object identifier = store.getIdentifier(scope);
+        return identifier != null && effectiveRoles.hasScopedRole(requestedName, scope.getClass(), identifier);
+    }
+
+
+    /**
+     * Builds a snapshot of every role the user holds, expanding {@link RoleGroup}s transitively. Each role is visited once so cyclic groups are
+     * safe.
+     *
+     * @param user
+     * @return
+     */
+    public EffectiveRoles buildEffectiveRoles(final Object user) {
+        final EffectiveRoles effectiveRoles = new EffectiveRoles();
+        final Collection<?> roles = (Collection<?>) rolesProperty.getValue(user);
+        if (roles != null) {
+            final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            for (final Object usersRole : roles) {
+                addEffectiveRole(effectiveRoles, usersRole, visited);
+            }
+        }
+        return effectiveRoles;
+    }
+
+
+    private void addEffectiveRole(final EffectiveRoles effectiveRoles, final Object usersRole, final Set<Object> visited) {
+        if (usersRole == null || !visited.add(usersRole)) {
+            return;
+        }
+        final Object name = roleNameProperty.getValue(usersRole);
+        if (name != null) {
+            if (!roleScopeClassProperty.isSet()) {
+                effectiveRoles.addGlobalRole(name);
+            }
+            else {
+                final Object usersScopeClass = roleScopeClassProperty.getValue(usersRole);
+                final Object usersScopeId = roleScopeIdProperty.getValue(usersRole);
+                if (scopeUnset(usersScopeClass, usersScopeId)) {
+                    effectiveRoles.addGlobalRole(name);
+                }
+                else if (usersScopeClass != null && usersScopeId != null) {
+                    effectiveRoles.addScopedRole(name, usersScopeClass, usersScopeId);
+                }
+            }
+        }
+        if (roleGroupProperty.isSet()) {
+            final Collection<?> roleGroups = (Collection<?>) roleGroupProperty.getValue(usersRole);
+            if (roleGroups != null) {
+                for (final Object object : roleGroups) {
+                    addEffectiveRole(effectiveRoles, object, visited);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return the value of the {@link Username} property of the given user or null if the user class does not declare one
+     */
+    public Object getUsername(final Object user) {
+        if (user == null || !usernameProperty.isSet()) {
+            return null;
+        }
+        return usernameProperty.getValue(user);
+    }
+
+
     protected boolean checkRole(final Object usersRole, final Object scope, final Object requestedRole) {
         if (isRoleEqual(usersRole, requestedRole)
                 && isScopeEqual(usersRole, scope)) {
@@ -258,4 +476,62 @@ public class IdentityManager {
         }
         return usersScopeClass.equals(scope.getClass());
     }
+
+
+    /**
+     * Records the outcome of an asynchronous authentication once, when it is first retrieved.
+     */
+    private final class RecordedAuthentication implements Future<Boolean> {
+
+        private final Future<Boolean> result;
+
+        private final long start;
+
+        private boolean recorded;
+
+
+        RecordedAuthentication(final Future<Boolean> result, final long start) {
+            this.result = result;
+            this.start = start;
+        }
+
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return result.cancel(mayInterruptIfRunning);
+        }
+
+
+        @Override
+        public boolean isCancelled() {
+            return result.isCancelled();
+        }
+
+
+        @Override
+        public boolean isDone() {
+            return result.isDone();
+        }
+
+
+        @Override
+        public Boolean get() throws InterruptedException, ExecutionException {
+            return record(result.get());
+        }
+
+
+        @Override
+        public Boolean get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return record(result.get(timeout, unit));
+        }
+
+
+        private synchronized Boolean record(final Boolean success) {
+            if (!recorded) {
+                recorded = true;
+                metrics.recordAuthentication(success, System.nanoTime() - start);
+            }
+            return success;
+        }
+    }
 }
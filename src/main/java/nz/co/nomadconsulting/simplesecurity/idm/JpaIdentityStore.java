@@ -17,28 +17,47 @@ package nz.co.nomadconsulting.simplesecurity.idm;
 
 import nz.co.nomadconsulting.simpleessentials.Entities;
 import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.authorisation.JpaPermissionStore;
 import nz.co.nomadconsulting.simplesecurity.authorisation.RoleName;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics;
 import nz.co.nomadconsulting.simplesecurity.util.AnnotatedBeanProperty;
 import nz.co.nomadconsulting.simplesecurity.util.BinTools;
 import nz.co.nomadconsulting.simplesecurity.util.PasswordUtils;
+import nz.co.nomadconsulting.simplesecurity.util.Reflections;
+import nz.co.nomadconsulting.simplesecurity.util.StoredPassword;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
+import javax.persistence.Entity;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.NoResultException;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 
 
 /**
@@ -72,7 +91,15 @@ import javax.persistence.NoResultException;
  *
  */
 @ApplicationScoped
-public class JpaIdentityStore implements IdentityStore {
+public class JpaIdentityStore implements AsyncIdentityStore, BatchIdentityStore {
+
+    static final String LOOKUP_USER_QUERY = JpaIdentityStore.class.getName() + ".lookupUser";
+
+    static final String LOOKUP_ROLE_QUERY = JpaIdentityStore.class.getName() + ".lookupRole";
+
+    static final String ALL_ROLES_QUERY = JpaIdentityStore.class.getName() + ".allRoles";
+
+    static final String EXISTING_USERNAMES_QUERY = JpaIdentityStore.class.getName() + ".existingUsernames";
 
     @Inject
     private EntityManager entityManager;
@@ -80,6 +107,21 @@ public class JpaIdentityStore implements IdentityStore {
     @Inject
     private Instance<IdentityStoreConfiguration> configuration;
 
+    @Inject
+    private UserCache userCache;
+
+    @Inject
+    private PasswordUtils passwordUtils;
+
+    @Inject
+    private PasswordHashExecutor passwordHashExecutor;
+
+    @Inject
+    private SecurityMetrics metrics;
+
+    @Inject
+    private LoginRateLimiter rateLimiter;
+
     @Inject
     @LoggedIn
     private Event<IdentityStoreEvent> loggedInEvent;
@@ -88,6 +130,9 @@ public class JpaIdentityStore implements IdentityStore {
     @UserCreated
     private Event<IdentityStoreEvent> userCreatedEvent;
 
+    @Inject
+    private Event<UsersCreatedEvent> usersCreatedEvent;
+
     @Inject
     @UserDeleted
     private Event<IdentityStoreEvent> userDeletedEvent;
@@ -104,6 +149,10 @@ public class JpaIdentityStore implements IdentityStore {
     @PrePersistRole
     private Event<IdentityStoreEvent> prePersistRoleEvent;
 
+    @Inject
+    @RoleRevoked
+    private Event<IdentityStoreEvent> roleRevokedEvent;
+
     private AnnotatedBeanProperty<Username> usernameProperty;
 
     private AnnotatedBeanProperty<PasswordHash> passwordProperty;
@@ -126,6 +175,38 @@ public class JpaIdentityStore implements IdentityStore {
 
     private Class<?> roleClass;
 
+    private String lookupUserJpql;
+
+    private String lookupRoleJpql;
+
+    private String allRolesJpql;
+
+    private String existingUsernamesJpql;
+
+    private boolean namedQueriesRegistered;
+
+    private String hashAlgorithm;
+
+    private int hashIterations;
+
+    private int minimumHashIterations;
+
+    private int maximumHashIterations;
+
+    private byte[] dummySalt;
+
+    private StoredPassword dummyPassword;
+
+    private boolean cheapRejectOnAbuse;
+
+    private boolean binaryHash;
+
+    private boolean binarySalt;
+
+    private final ThreadLocal<byte[]> saltBuffers = new ThreadLocal<>();
+
+    private final Logger logger = Logger.getLogger(JpaIdentityStore.class.getName());
+
 
     @PostConstruct
     public void init() {
@@ -149,13 +230,137 @@ public class JpaIdentityStore implements IdentityStore {
                 RoleScopeId.class);
         roleGroupProperty = new AnnotatedBeanProperty<>(roleClass,
                 RoleGroup.class);
+        binaryHash = passwordProperty.isSet() && passwordProperty.getPropertyType() == byte[].class;
+        binarySalt = passwordSaltProperty.isSet() && passwordSaltProperty.getPropertyType() == byte[].class;
+        initPasswordHash();
+        buildQueries();
+    }
+
+
+    /**
+     * New hashes are created with the algorithm and iterations from the {@link IdentityStoreConfiguration} where set, otherwise from the
+     * {@link PasswordHash} annotation. If a target latency is configured instead of iterations the count is calibrated on this host.
+     */
+    protected void initPasswordHash() {
+        if (!passwordProperty.isSet()) {
+            return;
+        }
+        final IdentityStoreConfiguration config = configuration.get();
+        final PasswordHash annotation = passwordProperty.getAnnotation();
+        try {
+            hashAlgorithm = PasswordUtils.resolveAlgorithm(config.getPasswordHashAlgorithm() != null ? config.getPasswordHashAlgorithm()
+                    : annotation.hash());
+        }
+        catch (final IllegalArgumentException e) {
+            throw new IdentityManagementException(e.getMessage(), e);
+        }
+        if (!passwordUtils.isSupported(hashAlgorithm)) {
+            if (config.getPasswordHashAlgorithm() != null) {
+                throw new IdentityManagementException("Password hash algorithm " + hashAlgorithm + " is not available on this JVM");
+            }
+            logger.warning("Password hash algorithm " + hashAlgorithm + " is not available on this JVM, using " + PasswordUtils.SHA1);
+            hashAlgorithm = PasswordUtils.SHA1;
+        }
+        minimumHashIterations = maximumHashIterations = hashIterations = annotation.iterations();
+        if (config.getPasswordHashIterations() > 0) {
+            minimumHashIterations = maximumHashIterations = hashIterations = config.getPasswordHashIterations();
+        }
+        else if (config.getPasswordHashTargetLatency() > 0) {
+            hashIterations = calibrateIterations(config.getPasswordHashTargetLatency());
+            // calibrated counts vary between hosts and restarts, only rehash when well outside the target
+            minimumHashIterations = hashIterations - hashIterations / 4;
+            maximumHashIterations = hashIterations + hashIterations / 4;
+        }
+        initDummyPassword();
+    }
+
+
+    /**
+     * Unknown and disabled users are checked against a hash created here, once, with the current algorithm and iterations so that rejecting
+     * them costs the same as rejecting a wrong password without parsing or decoding anything per attempt.
+     */
+    private void initDummyPassword() {
+        dummySalt = passwordUtils.generateRandomSalt();
+        dummyPassword = new StoredPassword(hashAlgorithm, hashIterations, deriveKey(
+                BinTools.bin2hex(passwordUtils.generateRandomSalt()), dummySalt, hashAlgorithm, hashIterations));
+        cheapRejectOnAbuse = configuration.get().isCheapRejectOnAbuse();
+    }
+
+
+    private int calibrateIterations(final long targetLatency) {
+        try {
+            final int iterations = passwordUtils.calibrateIterations(hashAlgorithm, TimeUnit.MILLISECONDS.toNanos(targetLatency));
+            logger.info("Calibrated " + hashAlgorithm + " to " + iterations + " iterations for a target of " + targetLatency + "ms");
+            return iterations;
+        }
+        catch (final GeneralSecurityException e) {
+            throw new IdentityManagementException("Could not calibrate password hash iterations", e);
+        }
+    }
+
+
+    /**
+     * @return the number of iterations used for new password hashes
+     */
+    public int getHashIterations() {
+        return hashIterations;
+    }
+
+
+    /**
+     * The user and role classes are fixed for the lifetime of the store so the lookup queries are built once here rather than on every call.
+     * Where the persistence provider supports it the queries are also registered as named queries so that lookups only need to bind their
+     * parameter. If registration is not possible the cached JPQL is used directly.
+     */
+    protected void buildQueries() {
+        lookupUserJpql = "select u from " + userClass.getName() + " u where u."
+                + usernameProperty.getName() + " = :username";
+        lookupRoleJpql = "select r from " + roleClass.getName() + " r where r."
+                + roleNameProperty.getName() + " = :role";
+        if (roleScopeClassProperty.isSet()) {
+            allRolesJpql = "select r from " + roleClass.getName() + " r where r."
+                    + roleScopeClassProperty.getName() + " is null";
+        }
+        else {
+            allRolesJpql = "select r from " + roleClass.getName() + " r";
+        }
+        existingUsernamesJpql = "select u." + usernameProperty.getName() + " from " + userClass.getName() + " u where u."
+                + usernameProperty.getName() + " in :usernames";
+
+        try {
+            final EntityManagerFactory factory = entityManager.getEntityManagerFactory();
+            factory.addNamedQuery(LOOKUP_USER_QUERY, entityManager.createQuery(lookupUserJpql));
+            factory.addNamedQuery(LOOKUP_ROLE_QUERY, entityManager.createQuery(lookupRoleJpql));
+            factory.addNamedQuery(ALL_ROLES_QUERY, entityManager.createQuery(allRolesJpql));
+            factory.addNamedQuery(EXISTING_USERNAMES_QUERY, entityManager.createQuery(existingUsernamesJpql));
+            namedQueriesRegistered = true;
+        }
+        catch (PersistenceException | IllegalStateException | UnsupportedOperationException ex) {
+            namedQueriesRegistered = false;
+        }
+    }
+
+
+    private Query createQuery(final String name, final String jpql) {
+        if (namedQueriesRegistered) {
+            return entityManager.createNamedQuery(name);
+        }
+        return entityManager.createQuery(jpql);
+    }
+
+
+    private <T> TypedQuery<T> createQuery(final String name, final String jpql, final Class<T> resultClass) {
+        if (namedQueriesRegistered) {
+            return entityManager.createNamedQuery(name, resultClass);
+        }
+        return entityManager.createQuery(jpql, resultClass);
     }
 
 
     /**
      * Attempts to authenticate the given user based on the supplied password. <br/>
-     * If the user is successfully authenticated an {@link IdentityStoreEvent} is fired providing access to the full user object retrieved from
-     * the database during authentication. The event is qualified with {@link LoggedIn}
+     * If the user is successfully authenticated an {@link IdentityStoreEvent} is fired providing access to the full user object, found in the
+     * current persistence context. The event is qualified with {@link LoggedIn}
      *
      * @param username
      *            - username corresponding to the {@link Username} annotation on your user class
@@ -166,54 +371,303 @@ public class JpaIdentityStore implements IdentityStore {
      */
     @Override
     public boolean authenticate(final String username, final String password) {
-        final Object user = lookupUser(username);
-        if (user == null || userEnabledProperty.isSet()
-                && (Boolean) userEnabledProperty.getValue(user) == false) {
+        if (!userCache.isEnabled()) {
+            // without the cache the entity found here is the one logged in, so it is only looked up once
+            final Object user = findUser(username);
+            final UserCache.Credentials credentials = user == null ? null : getCredentials(user);
+            return checkCredentials(credentials, password) && loggedIn(user, password, credentials.getStoredHash());
+        }
+
+        final UserCache.Credentials cached = getCachedCredentials(username);
+        UserCache.Credentials credentials = cached == null ? loadCredentials(username) : cached;
+        boolean matches = checkCredentials(credentials, password);
+        if (!matches && cached != null) {
+            credentials = reloadCredentials(username, cached);
+            matches = credentials != null && checkCredentials(credentials, password);
+        }
+        return matches && loggedIn(username, password, credentials.getStoredHash());
+    }
+
+
+    /**
+     * Checks the password against the credentials, or against the dummy hash if there are none or the user is disabled so that unknown users
+     * take as long to reject as known ones.
+     */
+    private boolean checkCredentials(final UserCache.Credentials credentials, final String password) {
+        if (credentials == null || !credentials.isEnabled()) {
+            if (!isCheapReject()) {
+                checkPassword(password, dummySalt, dummyPassword);
+            }
             return false;
         }
+        return checkPassword(password, credentials.getSalt(), credentials.getStoredHash());
+    }
 
-        String passwordHash = null;
 
-        if (passwordSaltProperty.isSet()) {
-            final String encodedSalt = (String) passwordSaltProperty
-                    .getValue(user);
-            if (encodedSalt == null) {
-                throw new IdentityManagementException(
-                        "A @PasswordSalt property was found on entity " + user
-                                + ", but it contains no value");
+    /**
+     * Finds the user in the current persistence context and logs them in, provided they are still enabled and still have the password which
+     * was checked. The credentials may have come from the {@link UserCache}, or been read by another thread, and the user changed since by
+     * something other than this store.
+     *
+     * @return false if the user has been deleted, disabled or given a new password since the credentials were read
+     */
+    private boolean loggedIn(final String username, final String password, final Object storedHash) {
+        final Object user = findUser(username);
+        if (user == null || !isEnabled(user) || !isSameHash(storedHash, passwordProperty.getValue(user))) {
+            userCache.invalidate(username);
+            return false;
+        }
+        return loggedIn(user, password, storedHash);
+    }
+
+
+    /**
+     * Rehashes the password if needed and fires the {@link LoggedIn} event.
+     */
+    private boolean loggedIn(final Object user, final String password, final Object storedHash) {
+        rehashIfOutdated(user, password, storedHash);
+        loggedInEvent.fire(new IdentityStoreEvent(user));
+        return true;
+    }
+
+
+    private static boolean isSameHash(final Object storedHash, final Object currentHash) {
+        if (storedHash instanceof byte[] && currentHash instanceof byte[]) {
+            return Arrays.equals((byte[]) storedHash, (byte[]) currentHash);
+        }
+        return storedHash == null ? currentHash == null : storedHash.equals(currentHash);
+    }
+
+
+    /**
+     * As {@link #authenticate(String, String)} but the password is hashed by the {@link PasswordHashExecutor} rather than the calling thread.
+     * The credentials are looked up before this method returns; the user is found and the {@link LoggedIn} event fired by the thread which
+     * first retrieves a successful result from the returned future so that they use that thread's persistence context and other contexts.
+     *
+     * @throws IdentityManagementException
+     *             if the hashing queue is full
+     */
+    @Override
+    public Future<Boolean> authenticateAsync(final String username, final String password) {
+        final UserCache.Credentials cached = getCachedCredentials(username);
+        UserCache.Credentials credentials = cached == null ? loadCredentials(username) : cached;
+        if (cached != null && !cached.isEnabled()) {
+            // no hash has to be checked to find out whether the user has been enabled since, so the database is asked straight away
+            credentials = reloadCredentials(username, cached);
+        }
+        if (credentials == null || !credentials.isEnabled()) {
+            if (isCheapReject()) {
+                return new PendingAuthentication(null, null, null, null, null);
             }
+            return new PendingAuthentication(null, null, null, null, passwordHashExecutor.submit(new Callable<Boolean>() {
 
-            passwordHash = generatePasswordHash(password,
-                    BinTools.hex2bin(encodedSalt));
+                @Override
+                public Boolean call() {
+                    checkPassword(password, dummySalt, dummyPassword);
+                    return false;
+                }
+            }));
         }
-        else {
+
+        final UserCache.Credentials checked = credentials;
+        final Future<Boolean> result = passwordHashExecutor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return checkPassword(password, checked.getSalt(), checked.getStoredHash());
+            }
+        });
+        return new PendingAuthentication(username, password, credentials == cached ? cached : null, credentials.getStoredHash(), result);
+    }
+
+
+    /**
+     * @return the credentials of the user, from the {@link UserCache} when available, or null if no such user exists
+     */
+    private UserCache.Credentials lookupCredentials(final String username) {
+        final UserCache.Credentials credentials = getCachedCredentials(username);
+        return credentials == null ? loadCredentials(username) : credentials;
+    }
+
+
+    /**
+     * @return the credentials of the user held by the {@link UserCache}, or null if they are not cached
+     */
+    private UserCache.Credentials getCachedCredentials(final String username) {
+        final UserCache.Credentials credentials = userCache.get(username);
+        if (userCache.isEnabled()) {
+            metrics.recordCacheAccess(SecurityMetrics.Cache.USER, credentials != null);
+        }
+        return credentials;
+    }
+
+
+    /**
+     * @return the credentials of the user read from the database, and cached, or null if no such user exists
+     */
+    private UserCache.Credentials loadCredentials(final String username) {
+        final Object user = findUser(username);
+        if (user == null) {
+            return null;
+        }
+        final UserCache.Credentials credentials = getCredentials(user);
+        userCache.put(username, credentials);
+        return credentials;
+    }
+
+
+    /**
+     * Called when cached credentials refuse a login. The user may have been re-enabled or given a new password by something other than this
+     * store, without an {@link IdentityStoreEvent} qualified with {@link UserUpdated}, so the entry is dropped and the user read again rather
+     * than refusing the right password until the entry expires.
+     *
+     * @return the credentials read from the database, or null if no such user exists or they are the same as the cached ones, in which case
+     *         checking them again would refuse the login too
+     */
+    private UserCache.Credentials reloadCredentials(final String username, final UserCache.Credentials cached) {
+        userCache.invalidate(username);
+        final UserCache.Credentials credentials = loadCredentials(username);
+        if (credentials == null || credentials.isEnabled() == cached.isEnabled()
+                && isSameHash(credentials.getStoredHash(), cached.getStoredHash()) && isSameHash(credentials.getSalt(), cached.getSalt())) {
+            return null;
+        }
+        return credentials;
+    }
+
+
+    private UserCache.Credentials getCredentials(final Object user) {
+        return new UserCache.Credentials(isEnabled(user), getSalt(user), passwordProperty.getValue(user));
+    }
+
+
+    private boolean isEnabled(final Object user) {
+        return !(userEnabledProperty.isSet()
+                && (Boolean) userEnabledProperty.getValue(user) == false);
+    }
+
+
+    /**
+     * @return true if unknown and disabled users should be rejected without the dummy hash
+     */
+    private boolean isCheapReject() {
+        return dummyPassword == null || cheapRejectOnAbuse && rateLimiter.isUnderAttack();
+    }
+
+
+    /**
+     * @return the salt, hex for a String property or raw for a byte[] property
+     */
+    private Object getSalt(final Object user) {
+        if (!passwordSaltProperty.isSet()) {
+            return null;
+        }
+        final Object salt = passwordSaltProperty
+                .getValue(user);
+        if (salt == null) {
+            throw new IdentityManagementException(
+                    "A @PasswordSalt property was found on entity " + user
+                            + ", but it contains no value");
+        }
+        return salt;
+    }
+
+
+    private boolean checkPassword(final String password, final Object salt, final Object storedHash) {
+        if (salt == null) {
             // TODO throw exception or something here
+            return false;
+        }
+        return checkPassword(password, salt instanceof byte[] ? (byte[]) salt : decodeSalt((String) salt), parseStoredPassword(storedHash));
+    }
+
+
+    /**
+     * The derived key is compared with the stored hash directly, whether hex or raw, without encoding it.
+     */
+    private boolean checkPassword(final String password, final byte[] salt, final StoredPassword stored) {
+        final boolean timed = metrics.isEnabled();
+        final long start = timed ? System.nanoTime() : 0;
+        final byte[] key = deriveKey(password, salt, stored.getAlgorithm(), stored.getIterations());
+        if (timed) {
+            metrics.recordPasswordHash(System.nanoTime() - start);
         }
+        return stored.matches(key);
+    }
 
-        final boolean success = slowEquals(passwordHash.toCharArray(), ((String) passwordProperty.getValue(user)).toCharArray());
 
-        if (success) {
-            loggedInEvent.fire(new IdentityStoreEvent(user));
+    /**
+     * Decodes into a buffer kept per thread, which is safe to reuse as the key derivation takes its own copy of the salt.
+     */
+    private byte[] decodeSalt(final String encodedSalt) {
+        final int length = BinTools.binLength(encodedSalt);
+        byte[] salt = saltBuffers.get();
+        if (salt == null || salt.length != length) {
+            salt = new byte[length];
+            saltBuffers.set(salt);
+        }
+        try {
+            BinTools.hex2bin(encodedSalt, salt, 0);
+        }
+        catch (final IllegalArgumentException e) {
+            throw new IdentityManagementException("Stored password salt is not valid hex", e);
         }
+        return salt;
+    }
+
 
-        return success;
+    /**
+     * Hashes without recorded parameters were created with SHA-1 and the iterations of the {@link PasswordHash} annotation. Hashes in byte[]
+     * properties always record their parameters.
+     */
+    private StoredPassword parseStoredPassword(final Object storedHash) {
+        try {
+            if (storedHash instanceof byte[]) {
+                return StoredPassword.parse((byte[]) storedHash);
+            }
+            return StoredPassword.parse((String) storedHash, PasswordUtils.SHA1, passwordProperty.getAnnotation().iterations());
+        }
+        catch (final IllegalArgumentException e) {
+            throw new IdentityManagementException(e.getMessage(), e);
+        }
     }
 
 
-    private boolean slowEquals(final char[] a, final char[] b) {
-        int diff = a.length ^ b.length;
-        for (int i = 0; i < a.length && i < b.length; i++) {
-            diff |= a[i] ^ b[i];
+    /**
+     * Replaces a hash created with an algorithm or iteration count other than the current ones. Called after a successful login, when the
+     * plain text password is available. Nothing is done outside a transaction, where the new hash could not be saved.
+     * <p>
+     * The new hash is flushed here, in the caller's transaction, so that a failure to save it is logged rather than surfacing when the caller
+     * commits. Most providers mark the transaction for rollback when a flush fails though, so a hash which does not fit its column will still
+     * fail the login; see {@link PasswordHash} for the size the column needs.
+     */
+    protected void rehashIfOutdated(final Object user, final String password, final Object storedHash) {
+        if (!parseStoredPassword(storedHash).isOutdated(hashAlgorithm, minimumHashIterations, maximumHashIterations)) {
+            return;
+        }
+        if (!isJoinedToTransaction()) {
+            return;
         }
-        return diff == 0;
+        try {
+            setUserPassword(user, password);
+            updateEntity(user);
+            flushEntities();
+        }
+        catch (final PersistenceException e) {
+            logger.log(Level.WARNING, "Could not save rehashed password", e);
+        }
+        userCache.invalidate(String.valueOf(usernameProperty.getValue(user)));
+    }
+
+
+    private StoredPassword generatePasswordHash(final String password, final byte[] salt) {
+        return new StoredPassword(hashAlgorithm, hashIterations, deriveKey(password, salt, hashAlgorithm, hashIterations));
     }
 
 
-    private String generatePasswordHash(final String password, final byte[] salt) {
+    private byte[] deriveKey(final String password, final byte[] salt, final String algorithm, final int iterations) {
         try {
-            return new PasswordUtils().createPasswordKey(
-                    password.toCharArray(), salt, passwordProperty
-                            .getAnnotation().iterations());
+            return passwordUtils.derivePasswordKey(algorithm,
+                    password.toCharArray(), salt, iterations);
         }
         catch (final GeneralSecurityException ex) {
             throw new IdentityManagementException(
@@ -283,8 +737,151 @@ public class JpaIdentityStore implements IdentityStore {
     }
 
 
+    /**
+     * Creates users a batch at a time, see {@link IdentityStoreConfiguration#getCreateUsersBatchSize()}. For each batch the existing usernames
+     * are found with a single query, the passwords of the rest are hashed in parallel by the {@link PasswordHashExecutor}, then the users are
+     * persisted, flushed and cleared from the persistence context so that it stays small and the provider can batch the inserts, e.g. with
+     * <code>hibernate.jdbc.batch_size</code>. As with {@link #createUser(String, String)} the caller supplies the transaction; note that
+     * anything else in the persistence context is detached when a batch is cleared.
+     * <p>
+     * A user which cannot be built, or whose password cannot be hashed, is reported in the result. Nothing has been persisted for it at that
+     * point, so the others can still be committed. A failure while persisting or flushing may leave the transaction marked for rollback and is
+     * thrown instead.
+     * <p>
+     * An {@link IdentityStoreEvent} qualified with {@link PrePersistUser} is still fired for every user, so observers can populate other
+     * fields, but in place of a {@link UserCreated} event for every user a single {@link UsersCreatedEvent} is fired for each batch once it has
+     * been flushed.
+     *
+     * @throws IdentityManagementException
+     *             if a user cannot be persisted or a batch cannot be flushed, in which case the transaction should be rolled back
+     */
+    @Override
+    public CreateUsersResult createUsers(final Map<String, String> users, final CreateUsersListener listener) {
+        if (userClass == null) {
+            throw new IdentityManagementException(
+                    "Could not create accounts, userClass not set");
+        }
+        final int batchSize = Math.max(1, configuration.get().getCreateUsersBatchSize());
+        final CreateUsersResult result = new CreateUsersResult();
+        final List<Map.Entry<String, String>> entries = new ArrayList<>(users.entrySet());
+        for (int start = 0; start < entries.size(); start += batchSize) {
+            final int end = Math.min(start + batchSize, entries.size());
+            createUsers(entries.subList(start, end), result);
+            if (listener != null) {
+                listener.batchCompleted(end, entries.size());
+            }
+        }
+        return result;
+    }
+
+
+    private void createUsers(final List<Map.Entry<String, String>> batch, final CreateUsersResult result) {
+        final Set<String> existing = findExistingUsernames(batch);
+        final List<Map.Entry<String, String>> candidates = new ArrayList<>(batch.size());
+        for (final Map.Entry<String, String> entry : batch) {
+            if (existing.contains(entry.getKey())) {
+                result.addFailure(entry.getKey(), new IdentityManagementException(
+                        "Could not create account, already exists"));
+            }
+            else {
+                candidates.add(entry);
+            }
+        }
+
+        final HashPasswords hashes = new HashPasswords(candidates, 0, candidates.size());
+        passwordHashExecutor.invoke(hashes);
+
+        final List<Object> created = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            final String username = candidates.get(i).getKey();
+            if (hashes.failures[i] != null) {
+                result.addFailure(username, hashes.failures[i]);
+                continue;
+            }
+            final Object user;
+            try {
+                user = userClass.newInstance();
+                usernameProperty.setValue(user, username);
+                if (hashes.hashes[i] == null) {
+                    if (userEnabledProperty.isSet()) {
+                        userEnabledProperty.setValue(user, false);
+                    }
+                }
+                else {
+                    setUserPassword(user, hashes.salts[i], hashes.hashes[i]);
+                    if (userEnabledProperty.isSet()) {
+                        userEnabledProperty.setValue(user, true);
+                    }
+                }
+            }
+            catch (final IdentityManagementException e) {
+                result.addFailure(username, e);
+                continue;
+            }
+            catch (final Exception e) {
+                result.addFailure(username, new IdentityManagementException("Could not create account", e));
+                continue;
+            }
+            // a failure from here on may have marked the transaction for rollback so it fails the whole call rather than one user
+            prePersistUserEvent.fire(new IdentityStoreEvent(user));
+            try {
+                persistEntity(user);
+            }
+            catch (final PersistenceException e) {
+                throw new IdentityManagementException("Could not create account " + username, e);
+            }
+            created.add(user);
+        }
+
+        try {
+            flushEntities();
+        }
+        catch (final PersistenceException e) {
+            throw new IdentityManagementException("Could not create accounts", e);
+        }
+        for (final Object user : created) {
+            result.addCreated(String.valueOf(usernameProperty.getValue(user)));
+        }
+        if (!created.isEmpty()) {
+            usersCreatedEvent.fire(new UsersCreatedEvent(created));
+        }
+        clearEntities();
+    }
+
+
+    /**
+     * @return the usernames in the batch which are already taken, found with one query per {@link JpaPermissionStore#MAX_TARGETS_PER_QUERY}
+     *         usernames so that large batches stay within the database's limit on the size of an IN list
+     */
+    protected Set<String> findExistingUsernames(final List<Map.Entry<String, String>> batch) {
+        final List<String> usernames = new ArrayList<>(batch.size());
+        for (final Map.Entry<String, String> entry : batch) {
+            usernames.add(entry.getKey());
+        }
+        final Set<String> existing = new HashSet<>();
+        for (int from = 0; from < usernames.size(); from += JpaPermissionStore.MAX_TARGETS_PER_QUERY) {
+            final List<String> chunk = usernames.subList(from, Math.min(from + JpaPermissionStore.MAX_TARGETS_PER_QUERY, usernames.size()));
+            for (final Object username : createQuery(EXISTING_USERNAMES_QUERY, existingUsernamesJpql)
+                    .setParameter("usernames", chunk).getResultList()) {
+                existing.add(String.valueOf(username));
+            }
+        }
+        return existing;
+    }
+
+
+    protected void flushEntities() {
+        entityManager.flush();
+    }
+
+
+    protected void clearEntities() {
+        entityManager.clear();
+    }
+
+
     private boolean userExists(final String username) {
-        return lookupUser(username) != null;
+        return lookupCredentials(username) != null;
     }
 
 
@@ -293,10 +890,25 @@ public class JpaIdentityStore implements IdentityStore {
     }
 
 
+    protected void updateEntity(final Object user) {
+        entityManager.merge(user);
+    }
+
+
+    protected boolean isJoinedToTransaction() {
+        return entityManager.isJoinedToTransaction();
+    }
+
+
     protected void setUserPassword(final Object user, final String password) {
-        final byte[] salt = new PasswordUtils().generateRandomSalt();
-        passwordSaltProperty.setValue(user, BinTools.bin2hex(salt));
-        passwordProperty.setValue(user, generatePasswordHash(password, salt));
+        final byte[] salt = passwordUtils.generateRandomSalt();
+        setUserPassword(user, salt, generatePasswordHash(password, salt));
+    }
+
+
+    private void setUserPassword(final Object user, final byte[] salt, final StoredPassword hash) {
+        passwordSaltProperty.setValue(user, binarySalt ? salt : BinTools.bin2hex(salt));
+        passwordProperty.setValue(user, binaryHash ? hash.toBytes() : hash.toString());
     }
 
 
@@ -312,7 +924,7 @@ public class JpaIdentityStore implements IdentityStore {
      */
     @Override
     public boolean deleteUser(final String username) {
-        final Object user = lookupUser(username);
+        final Object user = findUser(username);
         if (user == null) {
             throw new NoSuchUserException("Could not delete, user '" + username
                     + "' does not exist");
@@ -332,16 +944,24 @@ public class JpaIdentityStore implements IdentityStore {
     }
 
 
+    /**
+     * Looks up the user with the given username in the current persistence context. Entities are never taken from the {@link UserCache}, which
+     * only holds credentials.
+     *
+     * @param name
+     *            - username corresponding to the {@link Username} annotation on your user class
+     *
+     * @return the user or null if no such user exists
+     */
     @Override
     public Object lookupUser(final String name) {
+        return findUser(name);
+    }
+
+
+    protected Object findUser(final String name) {
         try {
-            final Object user = entityManager
-                    .createQuery(
-                            "select u from "
-                                    + configuration.get().getUserClass()
-                                            .getName() + " u where "
-                                    + usernameProperty.getName()
-                                    + " = :username")
+            final Object user = createQuery(LOOKUP_USER_QUERY, lookupUserJpql)
                     .setParameter("username", name).getSingleResult();
 
             return user;
@@ -360,7 +980,7 @@ public class JpaIdentityStore implements IdentityStore {
 
     @Override
     public void grantRole(final String username, final String rolename, final Object scope) {
-        final Object user = lookupUser(username);
+        final Object user = findUser(username);
 
         if (user == null) {
             return; // maybe throw an exception here?
@@ -442,35 +1062,54 @@ public class JpaIdentityStore implements IdentityStore {
     }
 
 
+    /**
+     * The identifier of an entity is asked of the persistence provider, which knows it for a lazy loading proxy, whose own fields are never
+     * set, and for an id declared on a mapped superclass. Where the provider cannot say the id property is read, looking through the
+     * superclasses of the scope for it. Anything which is not an entity is identified by its <code>toString()</code>.
+     */
     @Override
     public String getIdentifier(final Object scope) {
-        final Class<? extends Object> scopeClass = scope.getClass();
-        final String idProperty = Entities.getIdProperty(scopeClass, entityManager);
-        String identifier;
+        try {
+            return String.valueOf(entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(scope));
+        }
+        catch (final IllegalArgumentException e) {
+            // not an entity
+            return scope.toString();
+        }
+        catch (IllegalStateException | PersistenceException | UnsupportedOperationException e) {
+            // fall back to reading the id property
+        }
+        final String idProperty = Entities.getIdProperty(getEntityClass(scope.getClass()), entityManager);
         if (idProperty == null) {
-            identifier = scope.toString();
+            return scope.toString();
         }
-        else {
-            try {
-                final Field field = scopeClass.getDeclaredField(idProperty);
-                field.setAccessible(true);
-                identifier = String.valueOf(field.get(scope));
-            }
-            catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-                throw new RuntimeException("TODO i should be a proper exception");
+        try {
+            final Field field = Reflections.getField(scope.getClass(), idProperty);
+            field.setAccessible(true);
+            return String.valueOf(field.get(scope));
+        }
+        catch (IllegalArgumentException | SecurityException | IllegalAccessException e) {
+            throw new IdentityManagementException("Could not read identifier " + idProperty + " of " + scope.getClass().getName(), e);
+        }
+    }
+
+
+    /**
+     * @return the entity class of a scope, looking past any subclass generated by the persistence provider for lazy loading
+     */
+    private static Class<?> getEntityClass(final Class<?> scopeClass) {
+        for (Class<?> current = scopeClass; current != null; current = current.getSuperclass()) {
+            if (current.isAnnotationPresent(Entity.class)) {
+                return current;
             }
         }
-        return identifier;
+        return scopeClass;
     }
 
 
     protected Object lookupRole(final String role) {
         try {
-            final Object value = entityManager.createQuery(
-                    "select r from " + roleClass.getName() + " r where " + roleNameProperty.getName() +
-                            " = :role")
+            final Object value = createQuery(LOOKUP_ROLE_QUERY, lookupRoleJpql)
                     .setParameter("role", role)
                     .getSingleResult();
 
@@ -485,15 +1124,14 @@ public class JpaIdentityStore implements IdentityStore {
     @Override
     public Set<Object> getAllRoles() {
         final Set<Object> results = new HashSet<Object>();
-        results.addAll(entityManager
-                .createQuery("from " + roleClass.getName() + " where " + roleScopeClassProperty.getName() + " is null", roleClass).getResultList());
+        results.addAll(createQuery(ALL_ROLES_QUERY, allRolesJpql, roleClass).getResultList());
         return results;
     }
 
 
     @Override
     public void revokeRole(final String username, final String rolename, final Object scope) {
-        final Object user = lookupUser(username);
+        final Object user = findUser(username);
         final Object role = lookupRole(rolename);
 
         revokeRole(user, role, scope);
@@ -502,7 +1140,7 @@ public class JpaIdentityStore implements IdentityStore {
 
     @Override
     public void revokeRole(final String username, final Object role, final Object scope) {
-        final Object user = lookupUser(username);
+        final Object user = findUser(username);
 
         revokeRole(user, role, scope);
     }
@@ -513,7 +1151,150 @@ public class JpaIdentityStore implements IdentityStore {
             final Collection<?> roles = userRolesProperty.getValue(user);
             roles.remove(role);
             persistEntity(user);
+            final IdentityStoreEvent event = new IdentityStoreEvent(user);
+            event.setRole(role);
+            roleRevokedEvent.fire(event);
             // TODO what if Role class doesn't implement equals? need to do manual comparison including scope
         }
     }
+
+
+    /**
+     * Salts and hashes a range of passwords, splitting the range until each task hashes a single password. A failure is kept against its user
+     * rather than failing the whole batch.
+     */
+    private final class HashPasswords extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Map.Entry<String, String>> users;
+
+        private final int from;
+
+        private final int to;
+
+        private final byte[][] salts;
+
+        private final StoredPassword[] hashes;
+
+        private final IdentityManagementException[] failures;
+
+
+        HashPasswords(final List<Map.Entry<String, String>> users, final int from, final int to) {
+            this(users, from, to, new byte[users.size()][], new StoredPassword[users.size()],
+                    new IdentityManagementException[users.size()]);
+        }
+
+
+        private HashPasswords(final List<Map.Entry<String, String>> users, final int from, final int to, final byte[][] salts,
+                final StoredPassword[] hashes, final IdentityManagementException[] failures) {
+            this.users = users;
+            this.from = from;
+            this.to = to;
+            this.salts = salts;
+            this.hashes = hashes;
+            this.failures = failures;
+        }
+
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new HashPasswords(users, from, middle, salts, hashes, failures),
+                        new HashPasswords(users, middle, to, salts, hashes, failures));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                final String password = users.get(i).getValue();
+                if (password == null) {
+                    continue;
+                }
+                try {
+                    salts[i] = passwordUtils.generateRandomSalt();
+                    hashes[i] = generatePasswordHash(password, salts[i]);
+                }
+                catch (final IdentityManagementException e) {
+                    failures[i] = e;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The result of {@link JpaIdentityStore#authenticateAsync(String, String)}, firing the {@link LoggedIn} event once on the first successful
+     * retrieval. A password refused by credentials from the {@link UserCache} is checked once more, by the retrieving thread, if the user has
+     * been given a new password since they were cached.
+     */
+    private final class PendingAuthentication implements Future<Boolean> {
+
+        private final String username;
+
+        private final String password;
+
+        private final UserCache.Credentials cached;
+
+        private Object storedHash;
+
+        private final Future<Boolean> result;
+
+        private Boolean loggedIn;
+
+
+        PendingAuthentication(final String username, final String password, final UserCache.Credentials cached, final Object storedHash,
+                final Future<Boolean> result) {
+            this.username = username;
+            this.password = password;
+            this.cached = cached;
+            this.storedHash = storedHash;
+            this.result = result;
+        }
+
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return result != null && result.cancel(mayInterruptIfRunning);
+        }
+
+
+        @Override
+        public boolean isCancelled() {
+            return result != null && result.isCancelled();
+        }
+
+
+        @Override
+        public boolean isDone() {
+            return result == null || result.isDone();
+        }
+
+
+        @Override
+        public Boolean get() throws InterruptedException, ExecutionException {
+            return result == null ? false : loggedIn(result.get());
+        }
+
+
+        @Override
+        public Boolean get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return result == null ? false : loggedIn(result.get(timeout, unit));
+        }
+
+
+        private synchronized Boolean loggedIn(final Boolean success) {
+            if (loggedIn == null) {
+                boolean matches = success;
+                if (!matches && cached != null) {
+                    final UserCache.Credentials credentials = reloadCredentials(username, cached);
+                    if (credentials != null && credentials.isEnabled()) {
+                        storedHash = credentials.getStoredHash();
+                        matches = checkPassword(password, credentials.getSalt(), storedHash);
+                    }
+                }
+                loggedIn = matches && JpaIdentityStore.this.loggedIn(username, password, storedHash);
+            }
+            return loggedIn;
+        }
+    }
 }
@@ -15,6 +15,54 @@
  */
 package nz.co.nomadconsulting.simplesecurity.idm;
 
+/**
+ * Fired when a login attempt fails, either because the credentials were wrong or because the attempt was refused by the
+ * {@link LoginRateLimiter}.
+ *
+ * @author craig
+ *
+ */
 public class LoginFailedEvent {
 
+    private final String username;
+
+    private final String source;
+
+    private final boolean throttled;
+
+
+    public LoginFailedEvent() {
+        this(null, null, false);
+    }
+
+
+    public LoginFailedEvent(final String username, final String source, final boolean throttled) {
+        this.username = username;
+        this.source = source;
+        this.throttled = throttled;
+    }
+
+
+    /**
+     * @return the username given in the attempt, may be null
+     */
+    public String getUsername() {
+        return username;
+    }
+
+
+    /**
+     * @return where the attempt came from, typically the remote address of the request, may be null
+     */
+    public String getSource() {
+        return source;
+    }
+
+
+    /**
+     * @return true if the attempt was refused by the {@link LoginRateLimiter} without checking the credentials
+     */
+    public boolean isThrottled() {
+        return throttled;
+    }
 }
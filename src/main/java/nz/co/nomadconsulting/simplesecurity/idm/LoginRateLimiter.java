@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+
+/**
+ * Throttles repeated failed logins per username and per source. Each username and source has a token bucket holding
+ * {@link IdentityStoreConfiguration#getLoginAttemptsPerUsername()} or {@link IdentityStoreConfiguration#getLoginAttemptsPerSource()} tokens,
+ * one of which is taken by every {@link LoginFailedEvent} and one returned every
+ * {@link IdentityStoreConfiguration#getLoginAttemptRefillPeriod()} milliseconds. While either bucket is empty
+ * {@link nz.co.nomadconsulting.simplesecurity.DefaultIdentity#login()} refuses the attempt without consulting the identity store. A successful
+ * login refills the username's bucket, but not the source's.
+ * <p>
+ * A bucket is held as the single time at which it will next be full (the generic cell rate algorithm), updated with compare and set so
+ * recording and checking never lock. Buckets are kept per key, so one username or source is only ever throttled by its own failures. At most
+ * {@link IdentityStoreConfiguration#getLoginThrottleMaxKeys()} usernames and as many sources are tracked; beyond that buckets which are full
+ * again are forgotten first, then those holding a single failure. A spray across more distinct usernames than that within one refill period
+ * can make the limiter forget a username, allowing it a few more attempts, but can never lock out a username which was not tried. Throttling
+ * by source limits such a spray; sources are found by the {@link LoginSourceResolver}, which must be replaced behind a reverse proxy or every
+ * user shares the proxy's bucket.
+ * <p>
+ * Failures across all usernames and sources are also counted against {@link IdentityStoreConfiguration#getLoginAbuseFailureRate()}; while the
+ * rate is exceeded {@link #isUnderAttack()} is true and an identity store may choose to shed work, see
+ * {@link IdentityStoreConfiguration#isCheapRejectOnAbuse()}.
+ *
+ * @author craig
+ *
+ */
+@ApplicationScoped
+public class LoginRateLimiter {
+
+    @Inject
+    private Instance<IdentityStoreConfiguration> configuration;
+
+    private Buckets usernames;
+
+    private Buckets sources;
+
+    private long abuseInterval;
+
+    private long abuseTolerance;
+
+    /**
+     * The time at which the global failure bucket will next be full, relative to {@link #origin}.
+     */
+    private final AtomicLong abuseFullAt = new AtomicLong();
+
+    private final long origin = System.nanoTime();
+
+
+    @PostConstruct
+    public void init() {
+        final IdentityStoreConfiguration config = configuration.get();
+        final long interval = TimeUnit.MILLISECONDS.toNanos(config.getLoginAttemptRefillPeriod());
+        final int maxKeys = config.getLoginThrottleMaxKeys();
+        if (config.getLoginAttemptsPerUsername() > 0) {
+            usernames = new Buckets(maxKeys, interval, config.getLoginAttemptsPerUsername());
+        }
+        if (config.getLoginAttemptsPerSource() > 0) {
+            sources = new Buckets(maxKeys, interval, config.getLoginAttemptsPerSource());
+        }
+        if (config.getLoginAbuseFailureRate() > 0) {
+            abuseInterval = TimeUnit.SECONDS.toNanos(1) / config.getLoginAbuseFailureRate();
+            abuseTolerance = abuseInterval * (config.getLoginAbuseFailureRate() - 1);
+        }
+    }
+
+
+    /**
+     * @param username
+     *            may be null
+     * @param source
+     *            may be null
+     * @return true if the username or the source has run out of attempts
+     */
+    public boolean isThrottled(final String username, final String source) {
+        final long now = System.nanoTime();
+        return usernames != null && username != null && usernames.isEmpty(username, now)
+                || sources != null && source != null && sources.isEmpty(source, now);
+    }
+
+
+    /**
+     * @return true if more failed logins than {@link IdentityStoreConfiguration#getLoginAbuseFailureRate()} per second are being seen across
+     *         all usernames and sources
+     */
+    public boolean isUnderAttack() {
+        return abuseInterval > 0 && abuseFullAt.get() - (System.nanoTime() - origin) > abuseTolerance;
+    }
+
+
+    /**
+     * Forgets the failed logins of a username once it has logged in successfully.
+     */
+    public void loginSucceeded(final String username) {
+        if (usernames != null && username != null) {
+            usernames.reset(username);
+        }
+    }
+
+
+    public void loginFailedEventListener(@Observes final LoginFailedEvent event) {
+        if (event.isThrottled()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (usernames != null && event.getUsername() != null) {
+            usernames.take(event.getUsername(), now);
+        }
+        if (sources != null && event.getSource() != null) {
+            sources.take(event.getSource(), now);
+        }
+        if (abuseInterval > 0) {
+            final long time = now - origin;
+            long current;
+            do {
+                current = abuseFullAt.get();
+            }
+            while (!abuseFullAt.compareAndSet(current, Math.max(current, time) + abuseInterval));
+        }
+    }
+
+
+    /**
+     * Token buckets for up to a maximum number of keys, each held as the time at which it will next be full (the generic cell rate algorithm)
+     * and updated with compare and set. A key without a bucket is full. When a new key would exceed the maximum, buckets are dropped until
+     * three quarters of the maximum remain: first buckets which are full again, then buckets holding a single failure, then any in iteration
+     * order. Dropping a bucket forgets the failures of that key, so a spray of distinct keys can only loosen throttling, never throttle a key
+     * which was not tried.
+     */
+    static final class Buckets {
+
+        private final int maxKeys;
+
+        private final long interval;
+
+        private final long tolerance;
+
+        /**
+         * The time at which each bucket will next be full, relative to {@link #origin}.
+         */
+        private final ConcurrentMap<String, AtomicLong> fullAt = new ConcurrentHashMap<>();
+
+        private final long origin = System.nanoTime();
+
+
+        Buckets(final int maxKeys, final long interval, final int capacity) {
+            this.maxKeys = maxKeys;
+            this.interval = interval;
+            tolerance = interval * (capacity - 1);
+        }
+
+
+        boolean isEmpty(final String key, final long now) {
+            final AtomicLong bucket = fullAt.get(key);
+            return bucket != null && bucket.get() - (now - origin) > tolerance;
+        }
+
+
+        void take(final String key, final long now) {
+            final long time = now - origin;
+            AtomicLong bucket = fullAt.get(key);
+            if (bucket == null) {
+                if (fullAt.size() >= maxKeys) {
+                    evict(time);
+                }
+                final AtomicLong created = new AtomicLong(time + interval);
+                bucket = fullAt.putIfAbsent(key, created);
+                if (bucket == null) {
+                    return;
+                }
+            }
+            long current;
+            do {
+                current = bucket.get();
+            }
+            while (!bucket.compareAndSet(current, Math.max(current, time) + interval));
+        }
+
+
+        void reset(final String key) {
+            fullAt.remove(key);
+        }
+
+
+        int size() {
+            return fullAt.size();
+        }
+
+
+        private synchronized void evict(final long time) {
+            final int target = maxKeys - maxKeys / 4;
+            for (final long remaining : new long[] { 0, interval, Long.MAX_VALUE }) {
+                final Iterator<AtomicLong> buckets = fullAt.values().iterator();
+                while (buckets.hasNext() && fullAt.size() > target) {
+                    if (buckets.next().get() - time <= remaining) {
+                        buckets.remove();
+                    }
+                }
+            }
+        }
+    }
+}
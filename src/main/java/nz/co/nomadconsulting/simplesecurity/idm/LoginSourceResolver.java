@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import javax.servlet.http.HttpServletRequest;
+
+
+/**
+ * Identifies where a login attempt came from, the key the {@link LoginRateLimiter} throttles by source. The default implementation,
+ * {@link RemoteAddressLoginSourceResolver}, uses the remote address of the request, which behind a reverse proxy or load balancer is the
+ * address of the proxy so that every user shares one source. In that case provide an alternative implementation of this interface, e.g.
+ * with <code>@Alternative</code> or <code>@Specializes</code>, which reads the client address from the header set by the proxy. Only trust
+ * such a header on requests which arrived from the proxy, otherwise an attacker can choose a new source for every attempt.
+ *
+ * @author craig
+ *
+ */
+public interface LoginSourceResolver {
+
+    /**
+     * @return the source of a login attempt made in the given request, or null to not throttle the attempt by source
+     */
+    String resolveSource(HttpServletRequest request);
+}
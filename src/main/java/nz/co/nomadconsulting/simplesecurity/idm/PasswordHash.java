@@ -25,12 +25,31 @@ import java.lang.annotation.Target;
 import javax.inject.Qualifier;
 
 
+/**
+ * Marks the property of the user class holding the password hash. New hashes are created with the PBKDF2 variant named by {@link #hash()}
+ * and {@link #iterations()} rounds and are stored together with those parameters, so either can be changed later: existing users are verified
+ * with the parameters their hash was created with and rehashed on their next successful login.
+ * <p>
+ * The property may be a String, holding the parameters and hash as text, or a byte[], holding them in the more compact binary form described
+ * by {@link nz.co.nomadconsulting.simplesecurity.util.StoredPassword}. Existing text hashes are not converted when the type is changed.
+ * <p>
+ * The column must be wide enough for the hashes of the configured algorithm, which are longer than the bare md5 and SHA-1 hex of earlier
+ * versions: at least 100 characters or 40 bytes for PBKDF2WithHmacSHA256 and 160 characters or 72 bytes for PBKDF2WithHmacSHA512. Widen
+ * existing columns before upgrading, as every user with an older hash is rehashed on their next login.
+ *
+ * @author craig
+ *
+ */
 @Qualifier
 @Target({ PARAMETER, FIELD })
 @Retention(RUNTIME)
 public @interface PasswordHash {
 
-    String hash() default "md5";
+    /**
+     * @return the PBKDF2 algorithm, either in full, e.g. "PBKDF2WithHmacSHA256", or by digest, e.g. "SHA-256". If the algorithm is not
+     *         available, as the SHA-2 variants are not on Java 7, "PBKDF2WithHmacSHA1" is used instead and the hashes are replaced once it is.
+     */
+    String hash() default "PBKDF2WithHmacSHA256";
 
 
     int iterations() default 1024;
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+
+/**
+ * A bounded pool of threads dedicated to password hashing, used by {@link JpaIdentityStore#authenticateAsync(String, String)} so that a burst
+ * of logins cannot occupy every container thread with CPU bound key derivation. The pool has
+ * {@link IdentityStoreConfiguration#getHashingThreads()} threads and queues at most {@link IdentityStoreConfiguration#getHashingQueueSize()}
+ * attempts. When the queue is full a submitter waits up to {@link IdentityStoreConfiguration#getHashingQueueTimeout()} milliseconds for space
+ * before the attempt is rejected with an {@link IdentityManagementException}.
+ * <p>
+ * A separate {@link ForkJoinPool} with the same parallelism hashes the passwords of users created in bulk, see
+ * {@link JpaIdentityStore#createUsers(java.util.Map, CreateUsersListener)}. It is kept apart so that onboarding cannot fill the queue of
+ * logins.
+ *
+ * @author craig
+ *
+ */
+@ApplicationScoped
+public class PasswordHashExecutor {
+
+    @Inject
+    private Instance<IdentityStoreConfiguration> configuration;
+
+    private ThreadPoolExecutor executor;
+
+    private ForkJoinPool forkJoinPool;
+
+
+    @PostConstruct
+    public void init() {
+        final IdentityStoreConfiguration config = configuration.get();
+        final int threads = config.getHashingThreads() > 0 ? config.getHashingThreads() : Runtime.getRuntime().availableProcessors();
+        final long queueTimeout = config.getHashingQueueTimeout();
+        forkJoinPool = new ForkJoinPool(threads);
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(config.getHashingQueueSize()), new HashingThreadFactory(),
+                new RejectedExecutionHandler() {
+
+                    @Override
+                    public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Password hashing executor has been shut down");
+                        }
+                        try {
+                            final BlockingQueue<Runnable> queue = executor.getQueue();
+                            if (queueTimeout > 0 && queue.offer(task, queueTimeout, TimeUnit.MILLISECONDS)) {
+                                return;
+                            }
+                        }
+                        catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new RejectedExecutionException("Password hashing queue is full");
+                    }
+                });
+    }
+
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        forkJoinPool.shutdownNow();
+    }
+
+
+    /**
+     * @throws IdentityManagementException
+     *             if the queue stayed full for longer than the configured timeout
+     */
+    public <T> Future<T> submit(final Callable<T> task) {
+        try {
+            return executor.submit(task);
+        }
+        catch (final RejectedExecutionException e) {
+            throw new IdentityManagementException("Too many concurrent authentication attempts", e);
+        }
+    }
+
+
+    /**
+     * Runs the task on the fork join pool, waiting for it to complete.
+     */
+    public void invoke(final ForkJoinTask<?> task) {
+        forkJoinPool.invoke(task);
+    }
+
+
+    /**
+     * @return the number of attempts waiting for a hashing thread
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+
+    private static final class HashingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "password-hash-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -25,6 +25,12 @@ import java.lang.annotation.Target;
 import javax.inject.Qualifier;
 
 
+/**
+ * Marks the property of the user class holding the password salt, either a String holding the salt in hex or a byte[] holding it raw.
+ *
+ * @author craig
+ *
+ */
 @Qualifier
 @Target({ PARAMETER, FIELD })
 @Retention(RUNTIME)
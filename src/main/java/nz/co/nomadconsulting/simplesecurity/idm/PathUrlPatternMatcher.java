@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Matches urls against servlet style patterns:
+ * <ul>
+ * <li>exact paths, e.g. <code>/login.xhtml</code></li>
+ * <li>path prefixes ending in <code>/*</code>, e.g. <code>/public/*</code>, matching <code>/public</code> and everything beneath it</li>
+ * <li>extensions, e.g. <code>*.js</code></li>
+ * </ul>
+ * Paths are held in a trie of path segments so that a lookup costs one hash lookup per segment of the url, however many patterns are
+ * configured. Use it in place of a {@link RegexUrlPatternMatcher} by passing it to {@link AuthenticationFilter#setUrlPatternMatcher}.
+ *
+ * @author craig
+ *
+ */
+public class PathUrlPatternMatcher implements UrlPatternMatcher {
+
+    private final Set<String> patterns = new LinkedHashSet<>();
+
+    private final Node root = new Node();
+
+    private final Set<String> extensions = new HashSet<>();
+
+
+    public PathUrlPatternMatcher() {
+    }
+
+
+    public PathUrlPatternMatcher(final String... patterns) {
+        for (final String pattern : patterns) {
+            addPattern(pattern);
+        }
+    }
+
+
+    @Override
+    public boolean matches(final String url) {
+        if (!extensions.isEmpty()) {
+            final int dot = url.lastIndexOf('.');
+            if (dot > url.lastIndexOf('/') && extensions.contains(url.substring(dot + 1))) {
+                return true;
+            }
+        }
+
+        Node node = root;
+        int start = url.startsWith("/") ? 1 : 0;
+        while (node != null) {
+            if (node.prefix) {
+                return true;
+            }
+            if (start > url.length()) {
+                return node.exact;
+            }
+            int end = url.indexOf('/', start);
+            if (end < 0) {
+                end = url.length();
+            }
+            node = node.children.get(url.substring(start, end));
+            start = end + 1;
+        }
+        return false;
+    }
+
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the pattern is not an exact path, path prefix or extension
+     */
+    public final synchronized void addPattern(final String pattern) {
+        if (pattern.startsWith("*.")) {
+            extensions.add(pattern.substring(2));
+        }
+        else if (pattern.startsWith("/")) {
+            final boolean prefix = pattern.endsWith("/*");
+            final String path = prefix ? pattern.substring(0, pattern.length() - 2) : pattern;
+            if (path.indexOf('*') >= 0) {
+                throw new IllegalArgumentException("Wildcards are only supported at the end of a path: " + pattern);
+            }
+            Node node = root;
+            if (path.length() > 0) {
+                for (final String segment : path.substring(1).split("/", -1)) {
+                    Node child = node.children.get(segment);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(segment, child);
+                    }
+                    node = child;
+                }
+            }
+            if (prefix) {
+                node.prefix = true;
+            }
+            else {
+                node.exact = true;
+            }
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported url pattern: " + pattern);
+        }
+        patterns.add(pattern);
+    }
+
+
+    @Override
+    public String toString() {
+        return "PathUrlPatternMatcher [patterns=" + patterns + "]";
+    }
+
+
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+
+        private boolean exact;
+
+        private boolean prefix;
+    }
+}
@@ -15,14 +15,43 @@
  */
 package nz.co.nomadconsulting.simplesecurity.idm;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 
+/**
+ * Matches urls against a set of regular expressions. Rather than trying each expression in turn, expressions which are plain literals, a
+ * literal followed by <code>.*</code> (e.g. <code>/javax\.faces\.resource/.*</code>) or <code>.*</code> followed by a literal (e.g.
+ * <code>.*\.css</code>) are answered with string comparisons, and all remaining expressions are combined into a single alternation so that a
+ * url is matched with one regex evaluation however many patterns are configured.
+ *
+ * @author craig
+ *
+ */
 public class RegexUrlPatternMatcher implements UrlPatternMatcher {
 
-    private final Set<Pattern> patterns = new HashSet<>();
+    private static final String ANY = ".*";
+
+    private static final String META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final Set<String> patterns = new LinkedHashSet<>();
+
+    private final Set<String> exact = new HashSet<>();
+
+    private final List<String> prefixes = new ArrayList<>();
+
+    private final List<String> suffixes = new ArrayList<>();
+
+    private final List<String> regexes = new ArrayList<>();
+
+    private final List<Pattern> separate = new ArrayList<>();
+
+    private volatile Pattern combined;
 
 
     public RegexUrlPatternMatcher() {
@@ -36,17 +65,135 @@ public class RegexUrlPatternMatcher implements UrlPatternMatcher {
 
     @Override
     public boolean matches(final String url) {
-        for (final Pattern pattern : patterns) {
-            if (pattern.matcher(url).matches()) {
+        if (exact.contains(url)) {
+            return true;
+        }
+        if (isSingleLine(url)) {
+            for (int i = 0; i < prefixes.size(); i++) {
+                if (url.startsWith(prefixes.get(i))) {
+                    return true;
+                }
+            }
+            for (int i = 0; i < suffixes.size(); i++) {
+                if (url.endsWith(suffixes.get(i))) {
+                    return true;
+                }
+            }
+        }
+        for (int i = 0; i < separate.size(); i++) {
+            if (separate.get(i).matcher(url).matches()) {
                 return true;
             }
         }
+        final Pattern pattern = combined;
+        return pattern != null && pattern.matcher(url).matches();
+    }
+
+
+    public final synchronized void addPattern(final String regex) {
+        final Pattern compiled = Pattern.compile(regex);
+        if (!patterns.add(regex)) {
+            return;
+        }
+
+        final String literal = toLiteral(regex);
+        if (literal != null) {
+            exact.add(literal);
+            return;
+        }
+        if (regex.endsWith(ANY)) {
+            final String prefix = toLiteral(regex.substring(0, regex.length() - ANY.length()));
+            if (prefix != null) {
+                prefixes.add(prefix);
+                return;
+            }
+        }
+        if (regex.startsWith(ANY)) {
+            final String suffix = toLiteral(regex.substring(ANY.length()));
+            if (suffix != null) {
+                suffixes.add(suffix);
+                return;
+            }
+        }
+
+        if (hasBackReference(regex)) {
+            // group numbers would shift inside the alternation so these are matched on their own
+            separate.add(compiled);
+            return;
+        }
+        regexes.add(regex);
+        try {
+            combined = Pattern.compile(combine(regexes));
+        }
+        catch (final PatternSyntaxException e) {
+            // e.g. a named group already used by another pattern
+            regexes.remove(regexes.size() - 1);
+            separate.add(compiled);
+        }
+    }
+
+
+    private static String combine(final List<String> regexes) {
+        final StringBuilder alternation = new StringBuilder();
+        for (final String regex : regexes) {
+            if (alternation.length() > 0) {
+                alternation.append('|');
+            }
+            alternation.append("(?:").append(regex).append(')');
+        }
+        return alternation.toString();
+    }
+
+
+    /**
+     * @return the string matched by the regex if it contains no meta characters other than escapes, otherwise null
+     */
+    private static String toLiteral(final String regex) {
+        final StringBuilder literal = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (++i == regex.length()) {
+                    return null;
+                }
+                c = regex.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    return null;
+                }
+            }
+            else if (META_CHARACTERS.indexOf(c) >= 0) {
+                return null;
+            }
+            literal.append(c);
+        }
+        return literal.toString();
+    }
+
+
+    private static boolean hasBackReference(final String regex) {
+        for (int i = 0; i < regex.length() - 1; i++) {
+            if (regex.charAt(i) == '\\') {
+                final char next = regex.charAt(++i);
+                if (next >= '1' && next <= '9' || next == 'k') {
+                    return true;
+                }
+            }
+        }
         return false;
     }
 
 
-    public final void addPattern(final String regex) {
-        patterns.add(Pattern.compile(regex));
+    /**
+     * <code>.</code> does not match line terminators so urls containing them must go through the regex.
+     */
+    private static boolean isSingleLine(final String url) {
+        for (int i = 0; i < url.length(); i++) {
+            final char c = url.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+        }
+        return true;
     }
 
 
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Remembers whether servlet paths matched the {@link UrlPatternMatcher} for {@link AuthenticationFilter}. Lookups are a plain
+ * {@link ConcurrentHashMap} read and take no lock, so that every request, static resources included, does not queue on one monitor.
+ * <p>
+ * The size is bounded with the clock algorithm, an approximation of least recently used: a lookup marks its entry as referenced, and when
+ * the cache is full a hand sweeps round the entries, sparing and unmarking referenced ones and evicting the first one found unmarked. Only
+ * adding an entry, i.e. a miss, takes the lock which guards the hand. An entry is only written on its first lookup after a sweep has passed,
+ * so hot paths are read without writing to shared memory.
+ *
+ * @author craig
+ *
+ */
+class UrlMatchCache {
+
+    private final int maximumSize;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The clock hand, guarded by the lock on this cache.
+     */
+    private Iterator<Entry> hand;
+
+
+    UrlMatchCache(final int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+
+    /**
+     * @return the remembered result, or null if the path is not in the cache
+     */
+    Boolean get(final String servletPath) {
+        final Entry entry = entries.get(servletPath);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.matches;
+    }
+
+
+    void put(final String servletPath, final boolean matches) {
+        synchronized (this) {
+            while (entries.size() >= maximumSize) {
+                evict();
+            }
+            entries.put(servletPath, new Entry(servletPath, matches));
+        }
+    }
+
+
+    void clear() {
+        synchronized (this) {
+            entries.clear();
+            hand = null;
+        }
+    }
+
+
+    int size() {
+        return entries.size();
+    }
+
+
+    private void evict() {
+        if (hand == null || !hand.hasNext()) {
+            hand = entries.values().iterator();
+            if (!hand.hasNext()) {
+                return;
+            }
+        }
+        final Entry entry = hand.next();
+        if (entry.referenced) {
+            entry.referenced = false;
+        }
+        else {
+            entries.remove(entry.servletPath, entry);
+        }
+    }
+
+
+    private static final class Entry {
+
+        private final String servletPath;
+
+        private final boolean matches;
+
+        private volatile boolean referenced;
+
+
+        Entry(final String servletPath, final boolean matches) {
+            this.servletPath = servletPath;
+            this.matches = matches;
+        }
+    }
+}
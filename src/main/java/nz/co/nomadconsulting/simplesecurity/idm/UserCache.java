@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.util.AnnotatedBeanProperty;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+
+/**
+ * A bounded, read-through cache of user credentials keyed by username, used by {@link JpaIdentityStore} to avoid a database round trip on
+ * every authentication attempt. Only an immutable copy of the credentials is held, never the entity itself, which belongs to the persistence
+ * context that loaded it; the entity is found again in the current persistence context when one is needed, e.g. after a successful login.
+ * <p>
+ * Lookups are a plain {@link ConcurrentHashMap} read and take no lock, so that logins do not queue on one monitor. As in
+ * {@link UrlMatchCache} the size is bounded by {@link IdentityStoreConfiguration#getUserCacheSize()} with the clock algorithm, an
+ * approximation of least recently used, and only adding an entry takes the lock which guards the clock hand. Entries expire after
+ * {@link IdentityStoreConfiguration#getUserCacheTimeToLive()} milliseconds.
+ * <p>
+ * Entries are invalidated whenever an {@link IdentityStoreEvent} qualified with {@link UserCreated}, {@link UserDeleted} or
+ * {@link UserUpdated} is fired for the user; applications changing a password or enabling a user should fire the latter. Roles are not part
+ * of the credentials so granting or revoking them leaves the entry alone. A cached entry which refuses a login is dropped and the user read
+ * again, so a user re-enabled or given a new password without the event is not refused until the entry expires. A user disabled or given a
+ * new password without the event may still pass the password check against a cached entry, but the login is refused, and the entry
+ * invalidated, when the user found afterwards no longer matches it.<br/>
+ * Caching is disabled unless a cache size is configured.
+ *
+ * @author craig
+ *
+ */
+@ApplicationScoped
+public class UserCache {
+
+    @Inject
+    private Instance<IdentityStoreConfiguration> configuration;
+
+    private AnnotatedBeanProperty<Username> usernameProperty;
+
+    private ConcurrentMap<String, CachedCredentials> entries;
+
+    private int maximumSize;
+
+    private long timeToLive;
+
+    /**
+     * The clock hand, guarded by the lock on this cache.
+     */
+    private Iterator<CachedCredentials> hand;
+
+
+    @PostConstruct
+    public void init() {
+        final IdentityStoreConfiguration config = configuration.get();
+        usernameProperty = new AnnotatedBeanProperty<>(config.getUserClass(), Username.class);
+        timeToLive = config.getUserCacheTimeToLive();
+
+        maximumSize = config.getUserCacheSize();
+        if (maximumSize > 0) {
+            entries = new ConcurrentHashMap<>();
+        }
+    }
+
+
+    public boolean isEnabled() {
+        return entries != null;
+    }
+
+
+    /**
+     * @return the cached credentials or null if the user is not cached or the entry has expired
+     */
+    public Credentials get(final String username) {
+        if (entries == null || username == null) {
+            return null;
+        }
+        final CachedCredentials entry = entries.get(username);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(username, entry);
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.credentials;
+    }
+
+
+    public void put(final String username, final Credentials credentials) {
+        if (entries == null || username == null || credentials == null) {
+            return;
+        }
+        final CachedCredentials entry = new CachedCredentials(username, credentials, System.currentTimeMillis() + timeToLive);
+        synchronized (this) {
+            if (!entries.containsKey(username)) {
+                while (entries.size() >= maximumSize) {
+                    evict();
+                }
+            }
+            entries.put(username, entry);
+        }
+    }
+
+
+    public void invalidate(final String username) {
+        if (entries == null || username == null) {
+            return;
+        }
+        entries.remove(username);
+    }
+
+
+    public void invalidateAll() {
+        if (entries == null) {
+            return;
+        }
+        synchronized (this) {
+            entries.clear();
+            hand = null;
+        }
+    }
+
+
+    int size() {
+        return entries == null ? 0 : entries.size();
+    }
+
+
+    public void userCreatedEventListener(@Observes @UserCreated final IdentityStoreEvent event) {
+        invalidate(event);
+    }
+
+
+    public void userDeletedEventListener(@Observes @UserDeleted final IdentityStoreEvent event) {
+        invalidate(event);
+    }
+
+
+    public void userUpdatedEventListener(@Observes @UserUpdated final IdentityStoreEvent event) {
+        invalidate(event);
+    }
+
+
+    private void invalidate(final IdentityStoreEvent event) {
+        final Object user = event.getUser();
+        if (entries != null && user != null) {
+            final Object username = usernameProperty.getValue(user);
+            if (username != null) {
+                invalidate(username.toString());
+            }
+        }
+    }
+
+
+    /**
+     * Evicts an expired entry or the first entry the hand finds unreferenced, sparing and unmarking referenced ones.
+     */
+    private void evict() {
+        if (hand == null || !hand.hasNext()) {
+            hand = entries.values().iterator();
+            if (!hand.hasNext()) {
+                return;
+            }
+        }
+        final CachedCredentials entry = hand.next();
+        if (entry.referenced && !entry.isExpired(System.currentTimeMillis())) {
+            entry.referenced = false;
+        }
+        else {
+            entries.remove(entry.username, entry);
+        }
+    }
+
+    /**
+     * What authentication needs to know about a user. Salts and hashes held as byte[] are copied so that the entity they came from may change
+     * freely.
+     */
+    public static final class Credentials {
+
+        private final boolean enabled;
+
+        private final Object salt;
+
+        private final Object storedHash;
+
+
+        public Credentials(final boolean enabled, final Object salt, final Object storedHash) {
+            this.enabled = enabled;
+            this.salt = copy(salt);
+            this.storedHash = copy(storedHash);
+        }
+
+
+        private static Object copy(final Object value) {
+            return value instanceof byte[] ? ((byte[]) value).clone() : value;
+        }
+
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+
+        /**
+         * @return the salt, hex for a String property or raw for a byte[] property, which must not be modified
+         */
+        public Object getSalt() {
+            return salt;
+        }
+
+
+        /**
+         * @return the stored hash, a String or a byte[] which must not be modified
+         */
+        public Object getStoredHash() {
+            return storedHash;
+        }
+    }
+
+    private static final class CachedCredentials {
+
+        private final String username;
+
+        private final Credentials credentials;
+
+        private final long expires;
+
+        private volatile boolean referenced;
+
+
+        CachedCredentials(final String username, final Credentials credentials, final long expires) {
+            this.username = username;
+            this.credentials = credentials;
+            this.expires = expires;
+        }
+
+
+        boolean isExpired(final long now) {
+            return now >= expires;
+        }
+    }
+}
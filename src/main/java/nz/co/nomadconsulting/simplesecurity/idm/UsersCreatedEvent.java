@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Fired once for each batch of users created by {@link BatchIdentityStore#createUsers(java.util.Map, CreateUsersListener)}, in place of an
+ * {@link IdentityStoreEvent} qualified with {@link UserCreated} for every user.
+ *
+ * @author craig
+ *
+ */
+public class UsersCreatedEvent {
+
+    private final List<Object> users;
+
+
+    public UsersCreatedEvent(final List<Object> users) {
+        this.users = Collections.unmodifiableList(users);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getUsers() {
+        return (List<T>) users;
+    }
+}
@@ -0,0 +1,578 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.metrics;
+
+import nz.co.nomadconsulting.simplesecurity.util.LatencyHistogram;
+import nz.co.nomadconsulting.simplesecurity.util.StripedCounter;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+
+/**
+ * The default {@link SecurityMetrics}, keeping counters and {@link LatencyHistogram}s in memory and exposing them through the
+ * {@link JmxSecurityMetricsMBean} registered as <code>nz.co.nomadconsulting.simplesecurity:type=SecurityMetrics,application=&lt;name&gt;</code>,
+ * the name being that of the Java EE application, or of the module where the application has none, so that each deployment in a server has
+ * its own MBean. Outside a container the <code>application</code> key is left out. Recording only
+ * updates atomic counters, apart from the first check made by each permission store. The counters bumped on every role check, permission
+ * check, cache access and filtered request are {@link StripedCounter}s so that concurrent requests do not contend for them. Recording can be
+ * switched off through the MBean, leaving callers with a single volatile read.
+ *
+ * @author craig
+ *
+ */
+@ApplicationScoped
+public class JmxSecurityMetrics implements SecurityMetrics, JmxSecurityMetricsMBean {
+
+    public static final String OBJECT_NAME = "nz.co.nomadconsulting.simplesecurity:type=SecurityMetrics";
+
+    /**
+     * The class each permission store is reported under, worked out once per runtime class.
+     */
+    private static final ClassValue<Class<?>> STORE_CLASSES = new ClassValue<Class<?>>() {
+
+        @Override
+        protected Class<?> computeValue(final Class<?> type) {
+            return getProxiedClass(type);
+        }
+    };
+
+    private final Logger logger = Logger.getLogger(JmxSecurityMetrics.class.getName());
+
+    private final LatencyHistogram authentications = new LatencyHistogram();
+
+    private final AtomicLong authenticationFailures = new AtomicLong();
+
+    private final LatencyHistogram passwordHashes = new LatencyHistogram();
+
+    private final StripedCounter roleChecks = new StripedCounter();
+
+    private final StripedCounter roleChecksGranted = new StripedCounter();
+
+    private final LatencyHistogram roleCheckLatencies = new LatencyHistogram();
+
+    private final ConcurrentMap<Class<?>, StoreMetrics> permissionStores = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram permissionResolutions = new LatencyHistogram();
+
+    private final StripedCounter[] cacheHits = counters(Cache.values().length);
+
+    private final StripedCounter[] cacheMisses = counters(Cache.values().length);
+
+    private final StripedCounter[] filterDecisions = counters(FilterDecision.values().length);
+
+    private final LatencyHistogram[] interceptedCalls = new LatencyHistogram[Interceptor.values().length];
+
+    private final AtomicLongArray interceptedCallsRejected = new AtomicLongArray(Interceptor.values().length);
+
+    private volatile boolean enabled = true;
+
+    private ObjectName objectName;
+
+
+    public JmxSecurityMetrics() {
+        for (int i = 0; i < interceptedCalls.length; i++) {
+            interceptedCalls[i] = new LatencyHistogram();
+        }
+    }
+
+
+    @PostConstruct
+    public void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final String application = getApplicationName();
+            final ObjectName name = new ObjectName(application == null ? OBJECT_NAME : OBJECT_NAME + ",application="
+                    + ObjectName.quote(application));
+            if (server.isRegistered(name)) {
+                logger.warning("Security metrics MBean " + name + " is already registered, this instance will not be visible");
+                return;
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        }
+        catch (final JMException e) {
+            logger.log(Level.WARNING, "Could not register security metrics MBean", e);
+        }
+    }
+
+
+    /**
+     * @return the name of the application, or of the module where there is no application, or null outside a Java EE container
+     */
+    protected String getApplicationName() {
+        try {
+            final InitialContext context = new InitialContext();
+            try {
+                return (String) context.lookup("java:app/AppName");
+            }
+            catch (final NamingException e) {
+                return (String) context.lookup("java:module/ModuleName");
+            }
+        }
+        catch (final NamingException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * @return the name the MBean was registered under, or null if it is not registered
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+
+    @PreDestroy
+    public void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            catch (final JMException e) {
+                logger.log(Level.FINE, "Could not unregister security metrics MBean", e);
+            }
+            objectName = null;
+        }
+    }
+
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+
+    @Override
+    public void recordAuthentication(final boolean success, final long nanos) {
+        if (!enabled) {
+            return;
+        }
+        authentications.record(nanos);
+        if (!success) {
+            authenticationFailures.incrementAndGet();
+        }
+    }
+
+
+    @Override
+    public void recordPasswordHash(final long nanos) {
+        if (!enabled) {
+            return;
+        }
+        passwordHashes.record(nanos);
+    }
+
+
+    @Override
+    public void recordRoleCheck(final boolean granted) {
+        if (!enabled) {
+            return;
+        }
+        roleChecks.increment();
+        if (granted) {
+            roleChecksGranted.increment();
+        }
+    }
+
+
+    @Override
+    public void recordRoleCheckLatency(final long nanos) {
+        if (!enabled) {
+            return;
+        }
+        roleCheckLatencies.record(nanos);
+    }
+
+
+    @Override
+    public void recordPermissionCheck(final Object store, final int checks, final int granted) {
+        if (!enabled) {
+            return;
+        }
+        final StoreMetrics metrics = getStoreMetrics(store);
+        metrics.checks.add(checks);
+        if (granted > 0) {
+            metrics.granted.add(granted);
+        }
+    }
+
+
+    @Override
+    public void recordPermissionStoreLatency(final Object store, final long nanos) {
+        if (!enabled) {
+            return;
+        }
+        getStoreMetrics(store).latency.record(nanos);
+    }
+
+
+    @Override
+    public void recordPermissionResolution(final long nanos) {
+        if (!enabled) {
+            return;
+        }
+        permissionResolutions.record(nanos);
+    }
+
+
+    @Override
+    public void recordCacheAccess(final Cache cache, final boolean hit) {
+        if (!enabled) {
+            return;
+        }
+        (hit ? cacheHits : cacheMisses)[cache.ordinal()].increment();
+    }
+
+
+    @Override
+    public void recordFilterDecision(final FilterDecision decision) {
+        if (!enabled) {
+            return;
+        }
+        filterDecisions[decision.ordinal()].increment();
+    }
+
+
+    @Override
+    public void recordInterceptedCall(final Interceptor interceptor, final boolean rejected, final long nanos) {
+        if (!enabled) {
+            return;
+        }
+        interceptedCalls[interceptor.ordinal()].record(nanos);
+        if (rejected) {
+            interceptedCallsRejected.incrementAndGet(interceptor.ordinal());
+        }
+    }
+
+
+    @Override
+    public long getAuthenticationAttempts() {
+        return authentications.getCount();
+    }
+
+
+    @Override
+    public long getAuthenticationFailures() {
+        return authenticationFailures.get();
+    }
+
+
+    @Override
+    public long getAuthenticationMeanNanos() {
+        return mean(authentications);
+    }
+
+
+    @Override
+    public long getPasswordHashes() {
+        return passwordHashes.getCount();
+    }
+
+
+    @Override
+    public long getPasswordHashMeanNanos() {
+        return mean(passwordHashes);
+    }
+
+
+    @Override
+    public long getPasswordHash99thPercentileNanos() {
+        return passwordHashes.getPercentile(99);
+    }
+
+
+    @Override
+    public long getRoleChecks() {
+        return roleChecks.get();
+    }
+
+
+    @Override
+    public long getRoleChecksGranted() {
+        return roleChecksGranted.get();
+    }
+
+
+    @Override
+    public long getRoleCheckMeanNanos() {
+        return mean(roleCheckLatencies);
+    }
+
+
+    @Override
+    public long getRoleCheck99thPercentileNanos() {
+        return roleCheckLatencies.getPercentile(99);
+    }
+
+
+    /**
+     * @return the number of checks made by all permission stores. A check passed on from one store to the next is counted by both.
+     */
+    @Override
+    public long getPermissionChecks() {
+        long checks = 0;
+        for (final StoreMetrics metrics : permissionStores.values()) {
+            checks += metrics.checks.get();
+        }
+        return checks;
+    }
+
+
+    @Override
+    public long getPermissionChecksGranted() {
+        long granted = 0;
+        for (final StoreMetrics metrics : permissionStores.values()) {
+            granted += metrics.granted.get();
+        }
+        return granted;
+    }
+
+
+    @Override
+    public long getPermissionCheckMeanNanos() {
+        return mean(permissionResolutions);
+    }
+
+
+    @Override
+    public long getPermissionCheck99thPercentileNanos() {
+        return permissionResolutions.getPercentile(99);
+    }
+
+
+    @Override
+    public String[] getPermissionStores() {
+        final List<String> stores = new ArrayList<>();
+        for (final Map.Entry<Class<?>, StoreMetrics> entry : permissionStores.entrySet()) {
+            final StoreMetrics metrics = entry.getValue();
+            stores.add(entry.getKey().getName() + " checks=" + metrics.checks.get() + " granted=" + metrics.granted.get() + " meanNanos="
+                    + mean(metrics.latency) + " 99thPercentileNanos=" + metrics.latency.getPercentile(99));
+        }
+        return stores.toArray(new String[stores.size()]);
+    }
+
+
+    @Override
+    public double getUserCacheHitRatio() {
+        return hitRatio(Cache.USER);
+    }
+
+
+    @Override
+    public double getEffectiveRolesCacheHitRatio() {
+        return hitRatio(Cache.EFFECTIVE_ROLES);
+    }
+
+
+    @Override
+    public double getDecisionCacheHitRatio() {
+        return hitRatio(Cache.DECISION);
+    }
+
+
+    @Override
+    public double getUrlMatchCacheHitRatio() {
+        return hitRatio(Cache.URL_MATCH);
+    }
+
+
+    @Override
+    public long getPublicRequests() {
+        return filterDecisions[FilterDecision.PUBLIC.ordinal()].get();
+    }
+
+
+    @Override
+    public long getAuthenticatedRequests() {
+        return filterDecisions[FilterDecision.AUTHENTICATED.ordinal()].get();
+    }
+
+
+    @Override
+    public long getRejectedRequests() {
+        return filterDecisions[FilterDecision.REJECTED.ordinal()].get();
+    }
+
+
+    @Override
+    public long getAuthenticatedCalls() {
+        return interceptedCalls[Interceptor.AUTHENTICATION.ordinal()].getCount();
+    }
+
+
+    @Override
+    public long getAuthenticatedCallsRejected() {
+        return interceptedCallsRejected.get(Interceptor.AUTHENTICATION.ordinal());
+    }
+
+
+    @Override
+    public long getAuthenticatedCallMeanNanos() {
+        return mean(interceptedCalls[Interceptor.AUTHENTICATION.ordinal()]);
+    }
+
+
+    @Override
+    public long getAuthenticatedCall50thPercentileNanos() {
+        return interceptedCalls[Interceptor.AUTHENTICATION.ordinal()].getPercentile(50);
+    }
+
+
+    @Override
+    public long getAuthenticatedCall99thPercentileNanos() {
+        return interceptedCalls[Interceptor.AUTHENTICATION.ordinal()].getPercentile(99);
+    }
+
+
+    @Override
+    public long getAuthorisedCalls() {
+        return interceptedCalls[Interceptor.AUTHORISATION.ordinal()].getCount();
+    }
+
+
+    @Override
+    public long getAuthorisedCallsRejected() {
+        return interceptedCallsRejected.get(Interceptor.AUTHORISATION.ordinal());
+    }
+
+
+    @Override
+    public long getAuthorisedCallMeanNanos() {
+        return mean(interceptedCalls[Interceptor.AUTHORISATION.ordinal()]);
+    }
+
+
+    @Override
+    public long getAuthorisedCall50thPercentileNanos() {
+        return interceptedCalls[Interceptor.AUTHORISATION.ordinal()].getPercentile(50);
+    }
+
+
+    @Override
+    public long getAuthorisedCall99thPercentileNanos() {
+        return interceptedCalls[Interceptor.AUTHORISATION.ordinal()].getPercentile(99);
+    }
+
+
+    @Override
+    public void reset() {
+        authentications.reset();
+        authenticationFailures.set(0);
+        passwordHashes.reset();
+        roleChecks.reset();
+        roleChecksGranted.reset();
+        roleCheckLatencies.reset();
+        permissionStores.clear();
+        permissionResolutions.reset();
+        for (int i = 0; i < cacheHits.length; i++) {
+            cacheHits[i].reset();
+            cacheMisses[i].reset();
+        }
+        for (final StripedCounter counter : filterDecisions) {
+            counter.reset();
+        }
+        for (int i = 0; i < interceptedCalls.length; i++) {
+            interceptedCalls[i].reset();
+            interceptedCallsRejected.set(i, 0);
+        }
+    }
+
+
+    private double hitRatio(final Cache cache) {
+        final long hits = cacheHits[cache.ordinal()].get();
+        final long total = hits + cacheMisses[cache.ordinal()].get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+
+    private StoreMetrics getStoreMetrics(final Object store) {
+        final Class<?> storeClass = STORE_CLASSES.get(store.getClass());
+        StoreMetrics metrics = permissionStores.get(storeClass);
+        if (metrics == null) {
+            final StoreMetrics created = new StoreMetrics();
+            metrics = permissionStores.putIfAbsent(storeClass, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+
+    /**
+     * Stores managed by CDI are usually called through a generated proxy subclass, such as Weld's
+     * <code>...$Proxy$_$$_WeldClientProxy</code>, whose name is neither readable nor stable between deployments.
+     *
+     * @return the first superclass of the given class which is not a generated proxy, or the class itself if it is not one
+     */
+    static Class<?> getProxiedClass(final Class<?> type) {
+        Class<?> candidate = type;
+        while (candidate.getSuperclass() != null && (candidate.isSynthetic() || candidate.getName().contains("$$"))) {
+            candidate = candidate.getSuperclass();
+        }
+        return candidate;
+    }
+
+
+    private static StripedCounter[] counters(final int length) {
+        final StripedCounter[] counters = new StripedCounter[length];
+        for (int i = 0; i < length; i++) {
+            counters[i] = new StripedCounter();
+        }
+        return counters;
+    }
+
+
+    private static long mean(final LatencyHistogram histogram) {
+        final long count = histogram.getCount();
+        return count == 0 ? 0 : histogram.getTotalNanos() / count;
+    }
+
+
+    private static final class StoreMetrics {
+
+        private final StripedCounter checks = new StripedCounter();
+
+        private final StripedCounter granted = new StripedCounter();
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.metrics;
+
+/**
+ * The management interface of {@link JmxSecurityMetrics}. Latencies are in nanoseconds, percentiles are the upper bound of the histogram bucket
+ * containing the percentile.
+ *
+ * @author craig
+ *
+ */
+public interface JmxSecurityMetricsMBean {
+
+    boolean isEnabled();
+
+
+    /**
+     * Starts or stops recording, without clearing what has been recorded.
+     */
+    void setEnabled(boolean enabled);
+
+
+    long getAuthenticationAttempts();
+
+
+    long getAuthenticationFailures();
+
+
+    long getAuthenticationMeanNanos();
+
+
+    long getPasswordHashes();
+
+
+    long getPasswordHashMeanNanos();
+
+
+    long getPasswordHash99thPercentileNanos();
+
+
+    long getRoleChecks();
+
+
+    long getRoleChecksGranted();
+
+
+    /**
+     * @return the mean latency of the sampled role checks
+     */
+    long getRoleCheckMeanNanos();
+
+
+    long getRoleCheck99thPercentileNanos();
+
+
+    long getPermissionChecks();
+
+
+    long getPermissionChecksGranted();
+
+
+    /**
+     * @return the mean time to resolve a single or batch permission check, across all the stores consulted
+     */
+    long getPermissionCheckMeanNanos();
+
+
+    long getPermissionCheck99thPercentileNanos();
+
+
+    /**
+     * @return one line per permission store: its class, not that of any CDI proxy in front of it, the number of checks it was asked to make,
+     *         how many it granted and the mean and 99th percentile time it took to answer, from a sample of the calls
+     */
+    String[] getPermissionStores();
+
+
+    double getUserCacheHitRatio();
+
+
+    double getEffectiveRolesCacheHitRatio();
+
+
+    double getDecisionCacheHitRatio();
+
+
+    double getUrlMatchCacheHitRatio();
+
+
+    long getPublicRequests();
+
+
+    long getAuthenticatedRequests();
+
+
+    long getRejectedRequests();
+
+
+    long getAuthenticatedCalls();
+
+
+    long getAuthenticatedCallsRejected();
+
+
+    long getAuthenticatedCallMeanNanos();
+
+
+    long getAuthenticatedCall50thPercentileNanos();
+
+
+    long getAuthenticatedCall99thPercentileNanos();
+
+
+    long getAuthorisedCalls();
+
+
+    long getAuthorisedCallsRejected();
+
+
+    long getAuthorisedCallMeanNanos();
+
+
+    long getAuthorisedCall50thPercentileNanos();
+
+
+    long getAuthorisedCall99thPercentileNanos();
+
+
+    void reset();
+}
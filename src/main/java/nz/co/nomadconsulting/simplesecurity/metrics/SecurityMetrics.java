@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.metrics;
+
+/**
+ * Receives measurements of the security decisions made by the library. The default implementation, {@link JmxSecurityMetrics}, publishes
+ * them as a JMX MBean; to send them elsewhere provide an alternative implementation of this interface, e.g. with <code>@Alternative</code> or
+ * <code>@Specializes</code>.
+ * <p>
+ * Methods are called on every authentication, role check, permission check and filtered request so implementations must be thread safe and
+ * should not allocate or block. Durations are in nanoseconds. Role checks take less time than reading the clock so only a sample of them is
+ * timed, as are the calls to each permission store, and callers read the clock at all only while {@link #isEnabled()}.
+ *
+ * @author craig
+ *
+ */
+public interface SecurityMetrics {
+
+    /**
+     * One in this many role checks is timed.
+     */
+    int ROLE_CHECK_SAMPLE_RATE = 64;
+
+    /**
+     * The stores consulted by one in this many permission checks are timed.
+     */
+    int PERMISSION_STORE_SAMPLE_RATE = 16;
+
+    /**
+     * The caches whose hit ratios are recorded.
+     */
+    enum Cache {
+        USER, EFFECTIVE_ROLES, DECISION, URL_MATCH
+    }
+
+    /**
+     * The outcome of a request passing through the {@link nz.co.nomadconsulting.simplesecurity.idm.AuthenticationFilter}.
+     */
+    enum FilterDecision {
+        PUBLIC, AUTHENTICATED, REJECTED
+    }
+
+    /**
+     * The interceptors whose calls are recorded, {@link nz.co.nomadconsulting.simplesecurity.idm.AuthenticationInterceptor} and
+     * {@link nz.co.nomadconsulting.simplesecurity.authorisation.AuthorisationInterceptor}.
+     */
+    enum Interceptor {
+        AUTHENTICATION, AUTHORISATION
+    }
+
+
+    /**
+     * @return false if nothing is being recorded, in which case callers skip reading the clock
+     */
+    boolean isEnabled();
+
+
+    void recordAuthentication(boolean success, long nanos);
+
+
+    void recordPasswordHash(long nanos);
+
+
+    void recordRoleCheck(boolean granted);
+
+
+    /**
+     * Called for one in {@link #ROLE_CHECK_SAMPLE_RATE} role checks with the time it took.
+     */
+    void recordRoleCheckLatency(long nanos);
+
+
+    /**
+     * @param store
+     *            the store consulted
+     * @param checks
+     *            the number of checks the store was asked to make, more than one for a batch
+     * @param granted
+     *            how many of the checks the store granted
+     */
+    void recordPermissionCheck(Object store, int checks, int granted);
+
+
+    /**
+     * Called for the stores consulted by one in {@link #PERMISSION_STORE_SAMPLE_RATE} permission checks.
+     *
+     * @param store
+     *            the store consulted
+     * @param nanos
+     *            the time the store took to make all of the checks it was asked to make
+     */
+    void recordPermissionStoreLatency(Object store, long nanos);
+
+
+    /**
+     * @param nanos
+     *            the time taken to resolve a single or batch permission check, across all the stores consulted
+     */
+    void recordPermissionResolution(long nanos);
+
+
+    void recordCacheAccess(Cache cache, boolean hit);
+
+
+    void recordFilterDecision(FilterDecision decision);
+
+
+    /**
+     * @param rejected
+     *            true if the interceptor refused the call
+     * @param nanos
+     *            the time spent in the interceptor, including the intercepted call when it was allowed
+     */
+    void recordInterceptedCall(Interceptor interceptor, boolean rejected, long nanos);
+}
@@ -3,12 +3,21 @@ package nz.co.nomadconsulting.simplesecurity.util;
 import java.beans.Introspector;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 
 
+/**
+ * Locates the property of a class carrying a given annotation, either as a field or as a getter/setter pair. The field or methods are made
+ * accessible once, on construction, so that {@link #getValue(Object)} and {@link #setValue(Object, Object)} go straight to the reflective
+ * accessor without the lookup, the access checks and the toggling of the accessible flag done by {@link Reflections#getAndWrap(Field, Object)}
+ * and friends, and without allocating an argument array for a getter.
+ */
 public class AnnotatedBeanProperty<T extends Annotation> {
 
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
     private Field propertyField;
 
     private Method propertyGetter;
@@ -70,6 +79,8 @@ public class AnnotatedBeanProperty<T extends Annotation> {
                             this.name);
                     this.propertyType = this.propertyGetter
                             .getGenericReturnType();
+                    this.propertyGetter.setAccessible(true);
+                    this.propertySetter.setAccessible(true);
                     isFieldProperty = false;
                     set = true;
                 }
@@ -84,6 +95,8 @@ public class AnnotatedBeanProperty<T extends Annotation> {
 
 
     private void setupFieldProperty(final Field propertyField) {
+        // the field is our own copy, so leaving it accessible affects nobody else
+        propertyField.setAccessible(true);
         this.propertyField = propertyField;
         isFieldProperty = true;
         this.name = propertyField.getName();
@@ -92,22 +105,46 @@ public class AnnotatedBeanProperty<T extends Annotation> {
 
 
     public void setValue(final Object bean, final Object value) {
-        if (isFieldProperty) {
-            Reflections.setAndWrap(propertyField, bean, value);
+        try {
+            if (isFieldProperty) {
+                propertyField.set(bean, value);
+            }
+            else {
+                propertySetter.invoke(bean, value);
+            }
         }
-        else {
-            Reflections.invokeAndWrap(propertySetter, bean, value);
+        catch (final IllegalAccessException | InvocationTargetException e) {
+            throw wrap("exception setting: ", e);
         }
     }
 
 
+    @SuppressWarnings("unchecked")
     public <S> S getValue(final Object bean) {
-        if (isFieldProperty) {
-            return Reflections.getAndWrap(propertyField, bean);
+        try {
+            if (isFieldProperty) {
+                return (S) propertyField.get(bean);
+            }
+            else {
+                return (S) propertyGetter.invoke(bean, NO_ARGUMENTS);
+            }
+        }
+        catch (final IllegalAccessException | InvocationTargetException e) {
+            throw wrap("exception getting: ", e);
+        }
+    }
+
+
+    private RuntimeException wrap(final String message, final Exception e) {
+        final Throwable cause = e instanceof InvocationTargetException ? e
+                .getCause() : e;
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
         }
-        else {
-            return Reflections.invokeAndWrap(propertyGetter, bean);
+        if (cause instanceof Error) {
+            throw (Error) cause;
         }
+        return new IllegalArgumentException(message + name, cause);
     }
 
 
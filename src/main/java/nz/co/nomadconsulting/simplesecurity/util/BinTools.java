@@ -1,53 +1,134 @@
 package nz.co.nomadconsulting.simplesecurity.util;
 
+/**
+ * Hex encoding and decoding through lookup tables. Each operation is also available writing into a buffer supplied by the caller, and
+ * {@link #hexEquals(CharSequence, byte[])} compares hex against raw bytes directly, so that checking a password need not create any
+ * intermediate strings or arrays.
+ *
+ * @author craig
+ *
+ */
 public class BinTools {
 
     protected static final char[] hexArray = "0123456789ABCDEF".toCharArray();
 
+    /**
+     * The value of each ASCII hex digit, upper or lower case, and -1 for every other character.
+     */
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < HEX_VALUES.length; i++) {
+            HEX_VALUES[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+        }
+    }
+
 
     public static String bin2hex(final byte[] bytes) {
         final char[] hexChars = new char[bytes.length * 2];
-        for (int j = 0; j < bytes.length; j++) {
+        bin2hex(bytes, hexChars, 0);
+        return new String(hexChars);
+    }
+
+
+    /**
+     * Writes the bytes as upper case hex into the buffer.
+     *
+     * @return the number of characters written, always twice the number of bytes
+     * @throws ArrayIndexOutOfBoundsException
+     *             if the buffer is too small
+     */
+    public static int bin2hex(final byte[] bytes, final char[] out, final int offset) {
+        for (int j = 0, k = offset; j < bytes.length; j++) {
             final int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+            out[k++] = hexArray[v >>> 4];
+            out[k++] = hexArray[v & 0x0F];
         }
-        return new String(hexChars);
+        return bytes.length * 2;
     }
 
 
     public static byte[] hex2bin(final String s) {
-        String m = s;
         if (s == null) {
             // Allow empty input string.
-            m = "";
+            return new byte[0];
         }
-        else if (s.length() % 2 != 0) {
-            // Assume leading zero for odd string length
-            m = "0" + s;
+        final byte r[] = new byte[binLength(s)];
+        hex2bin(s, r, 0);
+        return r;
+    }
+
+
+    /**
+     * Decodes the hex into the buffer. As with {@link #hex2bin(String)} a string of odd length is read as if it had a leading zero.
+     *
+     * @return the number of bytes written, see {@link #binLength(CharSequence)}
+     * @throws IllegalArgumentException
+     *             if the string contains anything other than hex digits
+     * @throws ArrayIndexOutOfBoundsException
+     *             if the buffer is too small
+     */
+    public static int hex2bin(final CharSequence s, final byte[] out, final int offset) {
+        final int length = s.length();
+        int i = 0;
+        int n = offset;
+        if (length % 2 != 0) {
+            out[n++] = (byte) hex2bin(s.charAt(i++));
         }
-        final byte r[] = new byte[m.length() / 2];
-        for (int i = 0, n = 0; i < m.length(); n++) {
-            final char h = m.charAt(i++);
-            final char l = m.charAt(i++);
-            r[n] = (byte) (hex2bin(h) * 16 + hex2bin(l));
+        while (i < length) {
+            final int h = hex2bin(s.charAt(i++));
+            final int l = hex2bin(s.charAt(i++));
+            out[n++] = (byte) (h << 4 | l);
         }
-        return r;
+        return n - offset;
+    }
+
+
+    /**
+     * @return the number of bytes the hex decodes to
+     */
+    public static int binLength(final CharSequence s) {
+        return (s.length() + 1) / 2;
     }
 
 
     public static int hex2bin(final char c) {
-        if (c >= '0' && c <= '9') {
-            return c - '0';
-        }
-        if (c >= 'A' && c <= 'F') {
-            return c - 'A' + 10;
+        final int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException(
+                    "Input string may only contain hex digits, but found '" + c
+                    + "'");
         }
-        if (c >= 'a' && c <= 'f') {
-            return c - 'a' + 10;
+        return value;
+    }
+
+
+    /**
+     * Compares hex, in either case, with raw bytes in time that depends only on their lengths, never on where they differ. Unlike
+     * {@link #hex2bin(String)} the hex must have exactly two digits per byte; anything that is not a hex digit simply does not match.
+     *
+     * @return true if the hex encodes exactly the given bytes
+     */
+    public static boolean hexEquals(final CharSequence hex, final byte[] bytes) {
+        final int length = hex.length();
+        int diff = length ^ bytes.length * 2;
+        for (int i = 0, j = 0; i < bytes.length && j + 1 < length; i++) {
+            final int v = bytes[i] & 0xFF;
+            diff |= hexValue(hex.charAt(j++)) ^ v >>> 4;
+            diff |= hexValue(hex.charAt(j++)) ^ v & 0x0F;
         }
-        throw new IllegalArgumentException(
-                "Input string may only contain hex digits, but found '" + c
-                + "'");
+        return diff == 0;
+    }
+
+
+    private static int hexValue(final char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
     }
 }
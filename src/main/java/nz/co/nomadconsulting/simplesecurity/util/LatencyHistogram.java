@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A lock free histogram of durations in nanoseconds with power of two buckets: bucket <code>i</code> counts durations below
+ * <code>2<sup>i</sup></code> nanoseconds and at least <code>2<sup>i-1</sup></code>. Recording does not allocate, so it can be left on in
+ * production.
+ *
+ * @author craig
+ *
+ */
+public class LatencyHistogram {
+
+    /**
+     * Enough buckets for durations up to about 18 minutes, longer durations are counted in the last bucket.
+     */
+    public static final int BUCKETS = 41;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+
+    public void record(final long nanos) {
+        final long duration = nanos < 0 ? 0 : nanos;
+        counts.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(duration), BUCKETS - 1));
+        totalNanos.addAndGet(duration);
+    }
+
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+
+    public long getCount(final int bucket) {
+        return counts.get(bucket);
+    }
+
+
+    /**
+     * @return the exclusive upper bound, in nanoseconds, of durations counted in the bucket
+     */
+    public static long getUpperBound(final int bucket) {
+        return 1L << bucket;
+    }
+
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+
+    /**
+     * @return the upper bound of the bucket containing the given percentile (0-100) of recorded durations, or 0 if nothing has been recorded
+     */
+    public long getPercentile(final double percentile) {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return getUpperBound(i);
+            }
+        }
+        return getUpperBound(BUCKETS - 1);
+    }
+
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalNanos.set(0);
+    }
+}
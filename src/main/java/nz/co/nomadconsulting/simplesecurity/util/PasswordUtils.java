@@ -1,18 +1,74 @@
 package nz.co.nomadconsulting.simplesecurity.util;
 
 import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import javax.enterprise.context.ApplicationScoped;
+
+
+/**
+ * Generates salts and PBKDF2 password hashes. Instances are thread safe and intended to be shared: each {@link SecretKeyFactory} is looked up
+ * once per thread and salts come from a single {@link SecureRandom} seeded when the class is first used, keeping provider lookup and entropy
+ * gathering off the login path.
+ * <p>
+ * Hashes can be created with {@link #SHA1}, {@link #SHA256} or {@link #SHA512}. The SHA-1 variant produces a 256 bit key, as it always has, the
+ * others a key as long as their digest.
+ *
+ * @author craig
+ *
+ */
+@ApplicationScoped
+public class PasswordUtils {
 
+    public static final String SHA1 = "PBKDF2WithHmacSHA1";
 
-public class PasswordUtils {
+    public static final String SHA256 = "PBKDF2WithHmacSHA256";
+
+    public static final String SHA512 = "PBKDF2WithHmacSHA512";
+
+    /**
+     * The fewest iterations {@link #calibrateIterations(String, long)} will choose, however fast the host.
+     */
+    public static final int MINIMUM_ITERATIONS = 1000;
+
+    private static final int CALIBRATION_ITERATIONS = 1000;
+
+    /**
+     * How long the algorithm is run before timing it, long enough for the JIT to compile the key derivation loop. Timing interpreted code
+     * would choose too few iterations.
+     */
+    private static final long CALIBRATION_WARMUP_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+
+    /**
+     * How long the algorithm is timed for, taking at least {@link #CALIBRATION_SAMPLES} samples.
+     */
+    private static final long CALIBRATION_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int CALIBRATION_SAMPLES = 5;
 
     private int saltLength = 32;
 
-    private String hashAlgorithm = "PBKDF2WithHmacSHA1";
+    private String hashAlgorithm = SHA1;
+
+    private final ThreadLocal<Map<String, SecretKeyFactory>> secretKeyFactories = new ThreadLocal<Map<String, SecretKeyFactory>>() {
+
+        @Override
+        protected Map<String, SecretKeyFactory> initialValue() {
+            return new HashMap<>(4);
+        }
+    };
+
+
+    private final Map<String, Integer> calibratedIterations = new ConcurrentHashMap<>();
 
 
     public PasswordUtils() {
@@ -26,7 +82,7 @@ public class PasswordUtils {
 
     public byte[] generateRandomSalt() {
         final byte[] salt = new byte[saltLength];
-        new SecureRandom().nextBytes(salt);
+        RandomHolder.RANDOM.nextBytes(salt);
 
         return salt;
     }
@@ -34,14 +90,143 @@ public class PasswordUtils {
 
     public String createPasswordKey(final char[] password, final byte[] salt,
             final int iterations) throws GeneralSecurityException {
+        return createPasswordKey(hashAlgorithm, password, salt, iterations);
+    }
+
+
+    /**
+     * @return the key derived from the password with the given PBKDF2 algorithm, in hex
+     */
+    public String createPasswordKey(final String algorithm, final char[] password, final byte[] salt,
+            final int iterations) throws GeneralSecurityException {
+        return BinTools.bin2hex(derivePasswordKey(algorithm, password, salt, iterations));
+    }
+
+
+    /**
+     * @return the raw key derived from the password with the given PBKDF2 algorithm, for comparison with
+     *         {@link BinTools#hexEquals(CharSequence, byte[])} without encoding it
+     */
+    public byte[] derivePasswordKey(final String algorithm, final char[] password, final byte[] salt,
+            final int iterations) throws GeneralSecurityException {
         final PBEKeySpec passwordKeySpec = new PBEKeySpec(password, salt,
-                iterations, 256);
-        final SecretKeyFactory secretKeyFactory = SecretKeyFactory
-                .getInstance(hashAlgorithm);
-        final SecretKey passwordKey = secretKeyFactory
-                .generateSecret(passwordKeySpec);
-        passwordKeySpec.clearPassword();
-
-        return BinTools.bin2hex(passwordKey.getEncoded());
+                iterations, getKeyLength(algorithm));
+        try {
+            final SecretKey passwordKey = getSecretKeyFactory(algorithm)
+                    .generateSecret(passwordKeySpec);
+            return passwordKey.getEncoded();
+        }
+        finally {
+            passwordKeySpec.clearPassword();
+        }
+    }
+
+
+    /**
+     * Resolves the name given in {@link nz.co.nomadconsulting.simplesecurity.idm.PasswordHash#hash()} to a PBKDF2 algorithm. Either the full
+     * algorithm name or the digest, e.g. "SHA-256" or "sha256", is accepted.
+     *
+     * @throws IllegalArgumentException
+     *             if the name is not a supported PBKDF2 algorithm
+     */
+    public static String resolveAlgorithm(final String name) {
+        final String digest = name.toUpperCase(Locale.ENGLISH).replace("-", "").replace("PBKDF2WITHHMAC", "");
+        switch (digest) {
+            case "SHA1":
+                return SHA1;
+            case "SHA256":
+                return SHA256;
+            case "SHA512":
+                return SHA512;
+            default:
+                throw new IllegalArgumentException("Unsupported password hash algorithm: " + name);
+        }
+    }
+
+
+    /**
+     * @return true if the algorithm is available from an installed security provider. The SHA-2 variants need Java 8 or a third party
+     *         provider.
+     */
+    public boolean isSupported(final String algorithm) {
+        try {
+            getSecretKeyFactory(algorithm);
+            return true;
+        }
+        catch (final NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Measures how long the algorithm takes on this host and chooses the number of iterations that makes one hash take about the target
+     * time. The algorithm is first run for a few hundred milliseconds so that compiled rather than interpreted code is timed, then the fastest
+     * of the timed runs is used so that a busy moment during startup does not lower the count. The result is never below
+     * {@link #MINIMUM_ITERATIONS} and is remembered, see {@link #getCalibratedIterations(String)}.
+     *
+     * @param targetNanos
+     *            how long a single hash should take
+     * @return the number of iterations to use
+     */
+    public int calibrateIterations(final String algorithm, final long targetNanos) throws GeneralSecurityException {
+        final char[] password = "calibration".toCharArray();
+        final byte[] salt = generateRandomSalt();
+        final long warmedUp = System.nanoTime() + CALIBRATION_WARMUP_NANOS;
+        do {
+            createPasswordKey(algorithm, password, salt, CALIBRATION_ITERATIONS);
+        }
+        while (System.nanoTime() - warmedUp < 0);
+
+        long fastest = Long.MAX_VALUE;
+        final long sampled = System.nanoTime() + CALIBRATION_SAMPLE_NANOS;
+        for (int i = 0; i < CALIBRATION_SAMPLES || System.nanoTime() - sampled < 0; i++) {
+            final long start = System.nanoTime();
+            createPasswordKey(algorithm, password, salt, CALIBRATION_ITERATIONS);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+
+        final double iterations = (double) targetNanos * CALIBRATION_ITERATIONS / Math.max(fastest, 1);
+        final int calibrated = (int) Math.max(MINIMUM_ITERATIONS, Math.min(iterations, Integer.MAX_VALUE));
+        calibratedIterations.put(algorithm, calibrated);
+        return calibrated;
+    }
+
+
+    /**
+     * @return the iterations chosen by the last calibration of the algorithm, or 0 if it has not been calibrated
+     */
+    public int getCalibratedIterations(final String algorithm) {
+        final Integer iterations = calibratedIterations.get(algorithm);
+        return iterations == null ? 0 : iterations;
+    }
+
+
+    private static int getKeyLength(final String algorithm) {
+        return SHA512.equals(algorithm) ? 512 : 256;
+    }
+
+
+    private SecretKeyFactory getSecretKeyFactory(final String algorithm) throws NoSuchAlgorithmException {
+        final Map<String, SecretKeyFactory> factories = secretKeyFactories.get();
+        SecretKeyFactory factory = factories.get(algorithm);
+        if (factory == null) {
+            factory = SecretKeyFactory.getInstance(algorithm);
+            factories.put(algorithm, factory);
+        }
+        return factory;
+    }
+
+
+    /**
+     * Defers creating and seeding the shared {@link SecureRandom} until a salt is first needed.
+     */
+    private static final class RandomHolder {
+
+        private static final SecureRandom RANDOM = new SecureRandom();
+
+        static {
+            RANDOM.nextBytes(new byte[1]);
+        }
     }
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A password hash together with the parameters used to create it, stored as <code>algorithm:iterations:hash</code> with the hash in hex, e.g.
+ * <code>PBKDF2WithHmacSHA256:20000:9F86D0...</code>. Values written before the parameters were recorded are a bare hex hash and are read with
+ * the legacy parameters supplied to {@link #parse(String, String, int)}.
+ * <p>
+ * For byte[] properties the same information is held in a compact binary form, see {@link #toBytes()}: a format version byte, an algorithm
+ * byte, the iteration count as four bytes and then the raw hash, less than half the size of the text form.
+ *
+ * @author craig
+ *
+ */
+public class StoredPassword {
+
+    private static final char SEPARATOR = ':';
+
+    private static final byte BINARY_FORMAT = 1;
+
+    private static final int BINARY_HEADER_LENGTH = 6;
+
+    /**
+     * The algorithms which can be written in binary form, indexed by the byte that identifies them.
+     */
+    private static final String[] BINARY_ALGORITHMS = { null, PasswordUtils.SHA1, PasswordUtils.SHA256, PasswordUtils.SHA512 };
+
+    private final String algorithm;
+
+    private final int iterations;
+
+    private final String hash;
+
+    private final byte[] bytes;
+
+    private final int offset;
+
+
+    public StoredPassword(final String algorithm, final int iterations, final String hash) {
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.hash = hash;
+        bytes = null;
+        offset = 0;
+    }
+
+
+    public StoredPassword(final String algorithm, final int iterations, final byte[] hash) {
+        this(algorithm, iterations, hash, 0);
+    }
+
+
+    private StoredPassword(final String algorithm, final int iterations, final byte[] bytes, final int offset) {
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.bytes = bytes;
+        this.offset = offset;
+        hash = null;
+    }
+
+
+    /**
+     * @param legacyAlgorithm
+     *            the algorithm assumed for a bare hash
+     * @param legacyIterations
+     *            the iteration count assumed for a bare hash
+     * @throws IllegalArgumentException
+     *             if the value has parameters which cannot be read
+     */
+    public static StoredPassword parse(final String value, final String legacyAlgorithm, final int legacyIterations) {
+        final int first = value.indexOf(SEPARATOR);
+        if (first < 0) {
+            return new StoredPassword(legacyAlgorithm, legacyIterations, value);
+        }
+        final int second = value.indexOf(SEPARATOR, first + 1);
+        if (second < 0) {
+            throw new IllegalArgumentException("Stored password has no iteration count");
+        }
+        try {
+            return new StoredPassword(value.substring(0, first), Integer.parseInt(value.substring(first + 1, second)),
+                    value.substring(second + 1));
+        }
+        catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Stored password has an invalid iteration count", e);
+        }
+    }
+
+
+    /**
+     * Reads the binary form written by {@link #toBytes()}. The hash is not copied, the value must not be modified afterwards.
+     *
+     * @throws IllegalArgumentException
+     *             if the value is not in the binary form
+     */
+    public static StoredPassword parse(final byte[] value) {
+        if (value.length <= BINARY_HEADER_LENGTH || value[0] != BINARY_FORMAT) {
+            throw new IllegalArgumentException("Stored password is not in a known binary format");
+        }
+        final int id = value[1];
+        if (id <= 0 || id >= BINARY_ALGORITHMS.length) {
+            throw new IllegalArgumentException("Stored password has an unknown algorithm " + id);
+        }
+        return new StoredPassword(BINARY_ALGORITHMS[id], ByteBuffer.wrap(value, 2, 4).getInt(), value, BINARY_HEADER_LENGTH);
+    }
+
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+
+    public int getIterations() {
+        return iterations;
+    }
+
+
+    /**
+     * @return the hash in hex
+     */
+    public String getHash() {
+        if (hash != null) {
+            return hash;
+        }
+        return BinTools.bin2hex(getHashBytes());
+    }
+
+
+    /**
+     * @return a copy of the raw hash
+     */
+    public byte[] getHashBytes() {
+        if (bytes != null) {
+            return Arrays.copyOfRange(bytes, offset, bytes.length);
+        }
+        return BinTools.hex2bin(hash);
+    }
+
+
+    /**
+     * Compares the hash with a derived key in time that depends only on their lengths, without converting either.
+     *
+     * @return true if the key is the hash
+     */
+    public boolean matches(final byte[] key) {
+        if (hash != null) {
+            return BinTools.hexEquals(hash, key);
+        }
+        final int length = bytes.length - offset;
+        int diff = length ^ key.length;
+        for (int i = 0; i < length && i < key.length; i++) {
+            diff |= bytes[offset + i] ^ key[i];
+        }
+        return diff == 0;
+    }
+
+
+    /**
+     * @return true if the hash was not created with the given parameters
+     */
+    public boolean isOutdated(final String currentAlgorithm, final int currentIterations) {
+        return isOutdated(currentAlgorithm, currentIterations, currentIterations);
+    }
+
+
+    /**
+     * @return true if the hash was created with another algorithm or with an iteration count outside the given range
+     */
+    public boolean isOutdated(final String currentAlgorithm, final int minimumIterations, final int maximumIterations) {
+        return iterations < minimumIterations || iterations > maximumIterations || !algorithm.equals(currentAlgorithm);
+    }
+
+
+    /**
+     * @return the binary form, for byte[] properties
+     * @throws IllegalArgumentException
+     *             if the algorithm has no binary identifier
+     */
+    public byte[] toBytes() {
+        final int id = Arrays.asList(BINARY_ALGORITHMS).indexOf(algorithm);
+        if (id <= 0) {
+            throw new IllegalArgumentException("Password hash algorithm " + algorithm + " cannot be stored in binary form");
+        }
+        final int length = bytes != null ? bytes.length - offset : BinTools.binLength(hash);
+        final byte[] value = new byte[BINARY_HEADER_LENGTH + length];
+        value[0] = BINARY_FORMAT;
+        value[1] = (byte) id;
+        ByteBuffer.wrap(value, 2, 4).putInt(iterations);
+        if (bytes != null) {
+            System.arraycopy(bytes, offset, value, BINARY_HEADER_LENGTH, length);
+        }
+        else {
+            BinTools.hex2bin(hash, value, BINARY_HEADER_LENGTH);
+        }
+        return value;
+    }
+
+
+    @Override
+    public String toString() {
+        return algorithm + SEPARATOR + iterations + SEPARATOR + getHash();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A lock free counter spread over several cells, each on its own cache line, so that threads counting at the same time on different cores
+ * do not contend for one line as they would incrementing a single <code>AtomicLong</code>. A thread always counts in the cell chosen by its
+ * id, reading the count sums the cells.
+ *
+ * @author craig
+ *
+ */
+public class StripedCounter {
+
+    /**
+     * The longs in two cache lines, keeping cells clear of adjacent line prefetching.
+     */
+    private static final int PADDING = 16;
+
+    private final int mask;
+
+    private final AtomicLongArray cells;
+
+
+    public StripedCounter() {
+        final int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+        mask = stripes - 1;
+        cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+
+    public void increment() {
+        add(1);
+    }
+
+
+    public void add(final long delta) {
+        cells.getAndAdd((int) (Thread.currentThread().getId() & mask) * PADDING, delta);
+    }
+
+
+    public long get() {
+        long count = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            count += cells.get(i);
+        }
+        return count;
+    }
+
+
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0);
+        }
+    }
+}
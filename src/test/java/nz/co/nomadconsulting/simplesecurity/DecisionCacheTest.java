@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+
+public class DecisionCacheTest {
+
+    @Test
+    public void testPermission() {
+        final DecisionCache cache = new DecisionCache();
+        final Object resource = new Object();
+
+        assertThat(cache.getPermission(resource, "edit")).isNull();
+        cache.putPermission(resource, "edit", true);
+        cache.putPermission(resource, "delete", false);
+
+        assertThat(cache.getPermission(resource, "edit")).isTrue();
+        assertThat(cache.getPermission(resource, "delete")).isFalse();
+        assertThat(cache.getPermission(new Object(), "edit")).isNull();
+        assertThat(cache.getHits()).isEqualTo(2);
+        assertThat(cache.getMisses()).isEqualTo(2);
+    }
+
+
+    @Test
+    public void testRole() {
+        final DecisionCache cache = new DecisionCache();
+        final Object scope = new Object();
+        cache.putRole("admin", null, true);
+        cache.putRole("editor", scope, false);
+
+        assertThat(cache.getRole("admin", null)).isTrue();
+        assertThat(cache.getRole("editor", scope)).isFalse();
+        assertThat(cache.getRole("editor", null)).isNull();
+        assertThat(cache.getPermission(scope, "editor")).isNull();
+
+        cache.clear();
+        assertThat(cache.getRole("admin", null)).isNull();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import nz.co.nomadconsulting.simplesecurity.idm.IdentityManager;
+import nz.co.nomadconsulting.simplesecurity.idm.IdentityStoreEvent;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics;
+
+import javax.enterprise.context.ContextNotActiveException;
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.inject.spi.BeanManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+
+@RunWith(MockitoJUnitRunner.class)
+public class DefaultIdentityTest {
+
+    @InjectMocks
+    private DefaultIdentity identity;
+
+    @Mock
+    private IdentityManager identityManager;
+
+    @Mock
+    private DecisionCache decisionCache;
+
+    @Mock
+    private SecurityMetrics metrics;
+
+    @Mock
+    private BeanManager beanManager;
+
+
+    @Test
+    public void testHasRoleWithoutRequestContext() {
+        final Object user = new Object();
+        when(beanManager.getContext(RequestScoped.class)).thenThrow(new ContextNotActiveException());
+        when(identityManager.hasRole(user, "admin", null)).thenReturn(true);
+
+        identity.loggedInEventListener(new IdentityStoreEvent(user));
+
+        assertThat(identity.hasRole("admin")).isTrue();
+        assertThat(identity.hasRole("editor")).isFalse();
+        verifyZeroInteractions(decisionCache);
+    }
+}
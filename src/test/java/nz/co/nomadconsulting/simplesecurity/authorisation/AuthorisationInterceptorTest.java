@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.authorisation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import nz.co.nomadconsulting.simplesecurity.Identity;
+import nz.co.nomadconsulting.simplesecurity.annotation.Authorised;
+import nz.co.nomadconsulting.simplesecurity.authorisation.AuthorisationInterceptor.Rule;
+
+import java.lang.reflect.Method;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class AuthorisationInterceptorTest {
+
+    private Identity identity;
+
+
+    @Before
+    public void setup() {
+        identity = mock(Identity.class);
+        when(identity.hasRole("admin")).thenReturn(true);
+    }
+
+
+    @Test
+    public void testAnyRole() {
+        assertThat(new Rule(new String[] { "editor", "admin" }, false).isSatisfiedBy(identity)).isTrue();
+        assertThat(new Rule(new String[] { "editor" }, false).isSatisfiedBy(identity)).isFalse();
+    }
+
+
+    @Test
+    public void testAllRoles() {
+        assertThat(new Rule(new String[] { "admin" }, true).isSatisfiedBy(identity)).isTrue();
+        assertThat(new Rule(new String[] { "admin", "editor" }, true).isSatisfiedBy(identity)).isFalse();
+    }
+
+
+    @Test
+    public void testNoRoles() {
+        assertThat(new Rule(new String[0], false).isSatisfiedBy(identity)).isFalse();
+    }
+
+
+    @Test
+    public void testRuleWithEmptyAnnotationDenies() throws Exception {
+        final Rule rule = AuthorisationInterceptor.getRule(AdminResource.class.getMethod("view"), AdminResource.class);
+
+        assertThat(rule).isSameAs(Rule.DENY);
+    }
+
+
+    @Test
+    public void testRuleFromMethod() throws Exception {
+        final Rule rule = AuthorisationInterceptor.getRule(AdminResource.class.getMethod("delete"), AdminResource.class);
+
+        assertThat(rule.isSatisfiedBy(identity)).isFalse();
+    }
+
+
+    @Test
+    public void testRulePerTargetClass() throws Exception {
+        final Method method = Resource.class.getMethod("edit");
+        final Rule admin = AuthorisationInterceptor.getRule(method, AdminResource.class);
+        final Rule editor = AuthorisationInterceptor.getRule(method, EditorResource.class);
+
+        assertThat(admin.isSatisfiedBy(identity)).isTrue();
+        assertThat(editor.isSatisfiedBy(identity)).isFalse();
+        assertThat(AuthorisationInterceptor.getRule(method, AdminResource.class)).isSameAs(admin);
+        assertThat(AuthorisationInterceptor.getRule(method, EditorResource.class)).isSameAs(editor);
+    }
+
+
+    @Test
+    public void testRuleWithoutAnnotationDenies() throws Exception {
+        final Rule rule = AuthorisationInterceptor.getRule(Resource.class.getMethod("edit"), Resource.class);
+
+        assertThat(rule).isSameAs(Rule.DENY);
+        assertThat(rule.isSatisfiedBy(identity)).isFalse();
+    }
+
+    public static class Resource {
+
+        public void edit() {
+        }
+    }
+
+    @Authorised("admin")
+    public static class AdminResource extends Resource {
+
+        @Authorised("owner")
+        public void delete() {
+        }
+
+
+        @Authorised({})
+        public void view() {
+        }
+    }
+
+    @Authorised("editor")
+    public static class EditorResource extends Resource {
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.authorisation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.idm.IdentityStore;
+import nz.co.nomadconsulting.simplesecurity.idm.Username;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Id;
+import javax.persistence.Query;
+
+import org.jglue.cdiunit.CdiRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+
+@RunWith(CdiRunner.class)
+public class JpaPermissionStoreTest {
+
+    @Inject
+    private JpaPermissionStore store;
+
+    @Produces
+    @Mock
+    private EntityManager entityManager;
+
+    @Produces
+    @Mock
+    private IdentityStore identityStore;
+
+    @Mock
+    private Query query;
+
+    private final TestDocument first = new TestDocument(1L);
+
+    private final TestDocument second = new TestDocumentProxy(2L);
+
+    private static final List<PermissionsChangedEvent> events = new ArrayList<>();
+
+
+    @Before
+    public void setUp() {
+        events.clear();
+        when(entityManager.createQuery(anyString())).thenReturn(query);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        when(identityStore.getIdentifier(any())).thenAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                return ((TestDocument) invocation.getArguments()[0]).id;
+            }
+        });
+    }
+
+
+    @Test
+    public void testHasPermission() {
+        when(query.getSingleResult()).thenReturn(1L);
+
+        assertThat(store.hasPermission("craig", second, "edit")).isTrue();
+        verify(query).setParameter("recipient", "craig");
+        verify(query).setParameter("targetClass", TestDocument.class.getName());
+        verify(query).setParameter("target", "2");
+        verify(query).setParameter("action", "edit");
+    }
+
+
+    @Test
+    public void testHasPermissionDenied() {
+        when(query.getSingleResult()).thenReturn(0L);
+
+        assertThat(store.hasPermission("craig", first, "edit")).isFalse();
+        assertThat(store.hasPermission("craig", null, "edit")).isFalse();
+    }
+
+
+    @Test
+    public void testCheckPermissions() {
+        when(query.getResultList()).thenReturn(rows(new Object[] { "1", "edit" }, new Object[] { "2", "view" }));
+        final List<PermissionCheck> checks = Arrays.asList(new PermissionCheck(first, "edit"), new PermissionCheck(first, "view"),
+                new PermissionCheck(second, "view"));
+
+        store.checkPermissions("craig", checks);
+
+        assertThat(checks.get(0).isGranted()).isTrue();
+        assertThat(checks.get(1).isGranted()).isFalse();
+        assertThat(checks.get(2).isGranted()).isTrue();
+        verify(entityManager, times(1)).createQuery(anyString());
+        verify(query).setParameter("targetClass", TestDocument.class.getName());
+        verify(query).setParameter("targets", new HashSet<>(Arrays.asList("1", "2")));
+    }
+
+
+    @Test
+    public void testCheckPermissionsSplitsTargets() {
+        when(query.getResultList()).thenReturn(rows(new Object[] { "1", "edit" }), rows(new Object[] { "2500", "edit" }), rows());
+        final List<PermissionCheck> checks = new ArrayList<>();
+        for (long id = 1; id <= 2500; id++) {
+            checks.add(new PermissionCheck(new TestDocument(id), "edit"));
+        }
+
+        store.checkPermissions("craig", checks);
+
+        verify(entityManager, times(3)).createQuery(anyString());
+        int granted = 0;
+        for (final PermissionCheck check : checks) {
+            granted += check.isGranted() ? 1 : 0;
+        }
+        assertThat(granted).isEqualTo(2);
+    }
+
+
+    @Test
+    public void testGetPermissions() {
+        when(query.getResultList()).thenReturn(rows(new Object[] { "1", "edit" }, new Object[] { "1", "view" }));
+
+        final Map<String, Set<String>> permissions = store.getPermissions("craig", TestDocumentProxy.class);
+
+        assertThat(permissions).hasSize(1);
+        assertThat(permissions.get("1")).containsOnly("edit", "view");
+        verify(query).setParameter("targetClass", TestDocument.class.getName());
+    }
+
+
+    @Test
+    public void testGrantPermissionsSkipsHeldAndRepeated() {
+        when(query.getResultList()).thenReturn(rows(new Object[] { "1", "edit" }));
+
+        store.grantPermissions("craig", Arrays.asList(first, second, new TestDocument(2L)), Arrays.asList("edit", "edit"));
+
+        final ArgumentCaptor<Object> persisted = ArgumentCaptor.forClass(Object.class);
+        verify(entityManager).persist(persisted.capture());
+        final TestPermission permission = (TestPermission) persisted.getValue();
+        assertThat(permission.recipient).isEqualTo("craig");
+        assertThat(permission.targetClass).isEqualTo(TestDocument.class.getName());
+        assertThat(permission.target).isEqualTo("2");
+        assertThat(permission.action).isEqualTo("edit");
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getIdentity()).isEqualTo("craig");
+    }
+
+
+    @Test
+    public void testGrantPermissionsAlreadyHeld() {
+        when(query.getResultList()).thenReturn(rows(new Object[] { "1", "edit" }));
+
+        store.grantPermission("craig", first, "edit");
+
+        verify(entityManager, never()).persist(any());
+        assertThat(events).isEmpty();
+    }
+
+
+    @Test
+    public void testRevokePermissions() {
+        store.revokePermissions("craig", Arrays.asList(first, second), Arrays.asList("edit"));
+
+        verify(entityManager, times(1)).createQuery(anyString());
+        verify(query).setParameter("targetClass", TestDocument.class.getName());
+        verify(query).setParameter("targets", new HashSet<>(Arrays.asList("1", "2")));
+        verify(query).setParameter(eq("actions"), eq(Arrays.asList("edit")));
+        verify(query).executeUpdate();
+        assertThat(events).hasSize(1);
+    }
+
+
+    @Test
+    public void testRevokeNothing() {
+        store.revokePermissions("craig", Collections.emptyList(), Arrays.asList("edit"));
+
+        verify(entityManager, never()).createQuery(anyString());
+    }
+
+
+    public void permissionsChangedEventListener(@Observes final PermissionsChangedEvent event) {
+        events.add(event);
+    }
+
+
+    private static List<Object> rows(final Object[]... rows) {
+        return new ArrayList<Object>(Arrays.asList(rows));
+    }
+
+
+    @Produces
+    public IdentityStoreConfiguration identityStoreConfiguration() {
+        final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
+        config.setUserClass(TestUser.class);
+        return config;
+    }
+
+
+    @Produces
+    public PermissionResolverConfiguration configuration() {
+        final PermissionResolverConfiguration config = new PermissionResolverConfiguration();
+        config.setPermissionClass(TestPermission.class);
+        return config;
+    }
+
+    static class TestUser {
+        @Username
+        private String username;
+    }
+
+    public static class TestPermission {
+        @PermissionRecipient
+        private String recipient;
+
+        @PermissionTargetClass
+        private String targetClass;
+
+        @PermissionTarget
+        private String target;
+
+        @PermissionAction
+        private String action;
+    }
+
+    @Entity
+    static class TestDocument {
+        @Id
+        private final Long id;
+
+
+        TestDocument(final Long id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Stands in for a lazy loading proxy, a generated subclass of the entity without the entity annotation.
+     */
+    static class TestDocumentProxy extends TestDocument {
+
+        TestDocumentProxy(final Long id) {
+            super(id);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.authorisation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import nz.co.nomadconsulting.simplesecurity.metrics.JmxSecurityMetrics;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+
+import org.jglue.cdiunit.AdditionalClasses;
+import org.jglue.cdiunit.CdiRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+@RunWith(CdiRunner.class)
+@AdditionalClasses(JmxSecurityMetrics.class)
+public class PermissionResolverTest {
+
+    @Inject
+    private PermissionResolver permissionResolver;
+
+    private final TestBatchStore batchStore = new TestBatchStore();
+
+    private final TestStore store = new TestStore();
+
+
+    @Test
+    public void testHasPermission() {
+        assertThat(permissionResolver.hasPermission("craig", "document", "edit")).isTrue();
+        assertThat(permissionResolver.hasPermission("craig", "document", "view")).isTrue();
+        assertThat(permissionResolver.hasPermission("craig", "document", "delete")).isFalse();
+    }
+
+
+    @Test
+    public void testHasPermissions() {
+        final Map<Object, Set<String>> results = permissionResolver.hasPermissions("craig",
+                Arrays.asList("document", "report"), Arrays.asList("edit", "view", "delete"));
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get("document")).containsOnly("edit", "view");
+        assertThat(results.get("report")).containsOnly("view");
+        assertThat(batchStore.batches).isEqualTo(1);
+        assertThat(store.checks).isEqualTo(4);
+    }
+
+
+    @Produces
+    public PermissionResolverConfiguration configuration() {
+        final PermissionResolverConfiguration config = new PermissionResolverConfiguration();
+        config.setStores(new LinkedHashSet<PermissionStore>(Arrays.asList(batchStore, store)));
+        return config;
+    }
+
+    static class TestBatchStore implements BatchPermissionStore {
+
+        private int batches;
+
+
+        @Override
+        public boolean hasPermission(final Object identity, final Object resource, final String permission) {
+            return "view".equals(permission);
+        }
+
+
+        @Override
+        public void checkPermissions(final Object identity, final Collection<PermissionCheck> checks) {
+            batches++;
+            for (final PermissionCheck check : checks) {
+                if (hasPermission(identity, check.getResource(), check.getOperation())) {
+                    check.grant();
+                }
+            }
+        }
+
+
+        @Override
+        public void grantPermission(final Object identity, final Object resource, final Object permission) {
+        }
+
+
+        @Override
+        public void revokePermission(final Object identity, final Object resource, final Object permission) {
+        }
+    }
+
+    static class TestStore implements PermissionStore {
+
+        private int checks;
+
+
+        @Override
+        public boolean hasPermission(final Object identity, final Object resource, final String permission) {
+            checks++;
+            return "document".equals(resource) && "edit".equals(permission);
+        }
+
+
+        @Override
+        public void grantPermission(final Object identity, final Object resource, final Object permission) {
+        }
+
+
+        @Override
+        public void revokePermission(final Object identity, final Object resource, final Object permission) {
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.authorisation.RoleName;
+import nz.co.nomadconsulting.simplesecurity.metrics.JmxSecurityMetrics;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.enterprise.event.Event;
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+
+import org.jglue.cdiunit.AdditionalClasses;
+import org.jglue.cdiunit.CdiRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+
+
+@RunWith(CdiRunner.class)
+@AdditionalClasses(JmxSecurityMetrics.class)
+public class EffectiveRolesCacheTest {
+
+    @Inject
+    private EffectiveRolesCache cache;
+
+    @Produces
+    @Mock
+    private IdentityStore store;
+
+    @Inject
+    @LoggedIn
+    private Event<IdentityStoreEvent> loggedInEvent;
+
+    @Inject
+    @LoggedOut
+    private Event<IdentityStoreEvent> loggedOutEvent;
+
+    @Inject
+    @RoleRevoked
+    private Event<IdentityStoreEvent> roleRevokedEvent;
+
+
+    @Test
+    public void testInvalidatesOnlyThatUsername() {
+        final TestUser craig = new TestUser("craig");
+        final TestUser other = new TestUser("other");
+        when(store.lookupUser("craig")).thenReturn(craig);
+        loggedInEvent.fire(new IdentityStoreEvent(craig));
+        loggedInEvent.fire(new IdentityStoreEvent(other));
+        final EffectiveRoles otherRoles = cache.get(other);
+
+        craig.roles.add(new TestRole("admin"));
+        cache.invalidate("craig");
+
+        assertThat(cache.get(craig).hasGlobalRole("admin")).isTrue();
+        assertThat(cache.get(other)).isSameAs(otherRoles);
+    }
+
+
+    @Test
+    public void testRevokedRoleInvalidates() {
+        final TestUser craig = new TestUser("craig");
+        final TestRole admin = new TestRole("admin");
+        craig.roles.add(admin);
+        when(store.lookupUser("craig")).thenReturn(craig);
+        loggedInEvent.fire(new IdentityStoreEvent(craig));
+        assertThat(cache.get(craig).hasGlobalRole("admin")).isTrue();
+
+        craig.roles.remove(admin);
+        final IdentityStoreEvent event = new IdentityStoreEvent(craig);
+        event.setRole(admin);
+        roleRevokedEvent.fire(event);
+
+        assertThat(cache.get(craig).hasGlobalRole("admin")).isFalse();
+    }
+
+
+    @Test
+    public void testInvalidationDuringRebuildIsNotLost() throws Exception {
+        final TestUser craig = new TestUser("craig");
+        when(store.lookupUser("craig")).thenReturn(craig);
+        loggedInEvent.fire(new IdentityStoreEvent(craig));
+        cache.invalidate("craig");
+
+        craig.reading = new CountDownLatch(1);
+        craig.release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<EffectiveRoles> stale = executor.submit(new Callable<EffectiveRoles>() {
+
+                @Override
+                public EffectiveRoles call() {
+                    return cache.get(craig);
+                }
+            });
+            craig.reading.await();
+            craig.roles.add(new TestRole("admin"));
+            cache.invalidate("craig");
+            craig.release.countDown();
+
+            assertThat(stale.get().hasGlobalRole("admin")).isFalse();
+        }
+        finally {
+            executor.shutdown();
+        }
+        craig.reading = null;
+
+        assertThat(cache.get(craig).hasGlobalRole("admin")).isTrue();
+    }
+
+
+    @Test
+    public void testRebuiltFromStoredUser() {
+        final TestUser session = new TestUser("craig");
+        final TestUser stored = new TestUser("craig");
+        stored.roles.add(new TestRole("admin"));
+        when(store.lookupUser("craig")).thenReturn(stored);
+        loggedInEvent.fire(new IdentityStoreEvent(session));
+        assertThat(cache.get(session).hasGlobalRole("admin")).isFalse();
+
+        cache.invalidate("craig");
+
+        assertThat(cache.get(session).hasGlobalRole("admin")).isTrue();
+    }
+
+
+    @Test
+    public void testDeletedUserRebuiltWithoutRoles() {
+        final TestUser craig = new TestUser("craig");
+        craig.roles.add(new TestRole("admin"));
+        loggedInEvent.fire(new IdentityStoreEvent(craig));
+
+        cache.invalidate("craig");
+
+        assertThat(cache.get(craig).hasGlobalRole("admin")).isFalse();
+    }
+
+
+    @Test
+    public void testExpiredSessionLeavesIndex() throws Exception {
+        loggedInEvent.fire(new IdentityStoreEvent(new TestUser("expired")));
+        assertThat(cache.getIndexedUsernameCount()).isEqualTo(1);
+
+        for (int i = 0; i < 50 && cache.getIndexedUsernameCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(cache.getIndexedUsernameCount()).isZero();
+    }
+
+
+    @Test
+    public void testLogoutLeavesIndex() {
+        final TestUser craig = new TestUser("craig");
+        loggedInEvent.fire(new IdentityStoreEvent(craig));
+        loggedOutEvent.fire(new IdentityStoreEvent(craig));
+
+        assertThat(cache.getIndexedUsernameCount()).isZero();
+        assertThat(cache.get(craig)).isNull();
+    }
+
+
+    @Test
+    public void testNotLoggedIn() {
+        assertThat(cache.get(new TestUser("craig"))).isNull();
+    }
+
+
+    @Produces
+    public IdentityStoreConfiguration configuration() {
+        final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
+        config.setRoleClass(TestRole.class);
+        config.setUserClass(TestUser.class);
+        return config;
+    }
+
+    static class TestUser {
+        @Username
+        private final String username;
+
+        @Roles
+        private final Set<TestRole> roles = new CopyOnWriteArraySet<TestRole>() {
+
+            private static final long serialVersionUID = 1L;
+
+
+            /**
+             * Blocks, when asked to, after taking the snapshot so that a test can change the roles while effective roles are being built.
+             */
+            @Override
+            public Iterator<TestRole> iterator() {
+                final Iterator<TestRole> iterator = super.iterator();
+                if (reading != null) {
+                    reading.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return iterator;
+            }
+        };
+
+        private volatile CountDownLatch reading;
+
+        private volatile CountDownLatch release;
+
+
+        TestUser(final String username) {
+            this.username = username;
+        }
+    }
+
+    static class TestRole {
+        @RoleName
+        private final String name;
+
+
+        TestRole(final String name) {
+            this.name = name;
+        }
+    }
+}
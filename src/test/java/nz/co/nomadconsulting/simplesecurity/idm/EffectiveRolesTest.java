@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+
+public class EffectiveRolesTest {
+
+    @Test
+    public void testGlobalRole() {
+        final EffectiveRoles effectiveRoles = new EffectiveRoles();
+        effectiveRoles.addGlobalRole("admin");
+
+        assertThat(effectiveRoles.hasGlobalRole("admin")).isTrue();
+        assertThat(effectiveRoles.hasGlobalRole("editor")).isFalse();
+        assertThat(effectiveRoles.hasScopedRole("admin")).isFalse();
+    }
+
+
+    @Test
+    public void testScopedRole() {
+        final EffectiveRoles effectiveRoles = new EffectiveRoles();
+        effectiveRoles.addScopedRole("editor", String.class, 123L);
+
+        assertThat(effectiveRoles.hasGlobalRole("editor")).isFalse();
+        assertThat(effectiveRoles.hasScopedRole("editor")).isTrue();
+        assertThat(effectiveRoles.hasScopedRole("editor", String.class, 123L)).isTrue();
+        assertThat(effectiveRoles.hasScopedRole("editor", String.class, "123")).isTrue();
+        assertThat(effectiveRoles.hasScopedRole("editor", String.class, 456L)).isFalse();
+        assertThat(effectiveRoles.hasScopedRole("editor", Integer.class, 123L)).isFalse();
+        assertThat(effectiveRoles.hasScopedRole("admin", String.class, 123L)).isFalse();
+    }
+}
@@ -15,19 +15,30 @@
  */
 package nz.co.nomadconsulting.simplesecurity.idm;
 
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
 import nz.co.nomadconsulting.simplesecurity.authorisation.RoleName;
+import nz.co.nomadconsulting.simplesecurity.metrics.JmxSecurityMetrics;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
+import javax.enterprise.event.Event;
 import javax.enterprise.inject.Produces;
 import javax.inject.Inject;
 import javax.persistence.Id;
 
+import org.jglue.cdiunit.AdditionalClasses;
 import org.jglue.cdiunit.CdiRunner;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -36,6 +47,7 @@ import org.mockito.Mock;
 
 
 @RunWith(CdiRunner.class)
+@AdditionalClasses(JmxSecurityMetrics.class)
 public class IdentityManagerTest {
 
     @Inject
@@ -45,6 +57,14 @@ public class IdentityManagerTest {
     @Mock
     private IdentityStore store;
 
+    @Inject
+    @LoggedIn
+    private Event<IdentityStoreEvent> loggedInEvent;
+
+    @Inject
+    @LoggedOut
+    private Event<IdentityStoreEvent> loggedOutEvent;
+
 
     @Test
     public void testCreation() {
@@ -52,6 +72,67 @@ public class IdentityManagerTest {
     }
 
 
+    @Test
+    public void testAuthenticateAsyncWithoutAsyncStore() throws Exception {
+        when(store.authenticate("craig", "v0yager1")).thenReturn(true);
+
+        final Future<Boolean> result = identityManager.authenticateAsync("craig", "v0yager1");
+
+        assertThat(result.isDone()).isTrue();
+        assertThat(result.get()).isTrue();
+        assertThat(identityManager.authenticateAsync("craig", "wrong").get()).isFalse();
+    }
+
+
+    @Test
+    public void testCreateUsersWithoutBatchStore() {
+        final Map<String, String> users = new LinkedHashMap<>();
+        users.put("craig", "v0yager1");
+        users.put("existing", "v0yager1");
+        when(store.lookupUser("existing")).thenReturn(new TestUser());
+        when(store.createUser("craig", "v0yager1")).thenReturn(true);
+        final List<Integer> processed = new ArrayList<>();
+
+        final CreateUsersResult result = identityManager.createUsers(users, new CreateUsersListener() {
+
+            @Override
+            public void batchCompleted(final int count, final int total) {
+                processed.add(count);
+            }
+        });
+
+        assertThat(result.getCreated()).containsExactly("craig");
+        assertThat(result.getFailures()).containsKey("existing");
+        verify(store, never()).createUser("existing", "v0yager1");
+        assertThat(processed).containsExactly(2);
+    }
+
+
+    @Test
+    public void testCreateUsersWithoutBatchStoreReportsFailure() {
+        final Map<String, String> users = new LinkedHashMap<>();
+        users.put("first", "v0yager1");
+        users.put("broken", "v0yager1");
+        users.put("last", "v0yager1");
+        when(store.createUser("first", "v0yager1")).thenReturn(true);
+        when(store.createUser("broken", "v0yager1")).thenThrow(new IdentityManagementException("Could not create account"));
+        when(store.createUser("last", "v0yager1")).thenReturn(true);
+        final List<Integer> processed = new ArrayList<>();
+
+        final CreateUsersResult result = identityManager.createUsers(users, new CreateUsersListener() {
+
+            @Override
+            public void batchCompleted(final int count, final int total) {
+                processed.add(count);
+            }
+        });
+
+        assertThat(result.getCreated()).containsExactly("first", "last");
+        assertThat(result.getFailures()).containsOnlyKeys("broken");
+        assertThat(processed).containsExactly(3);
+    }
+
+
     @Test
     public void testHasRole() {
         final TestUser user = new TestUser();
@@ -171,6 +252,57 @@ public class IdentityManagerTest {
     }
 
 
+    @Test
+    public void testHasRoleLoggedInUser() {
+        final TestUser user = new TestUser();
+        final TestScope scope = new TestScope(123);
+        user.roles.add(new TestRole("admin", null, null));
+        user.roles.add(new TestRole("editor", scope.id.toString(), TestScope.class));
+
+        loggedInEvent.fire(new IdentityStoreEvent(user));
+
+        assertThat(identityManager.hasRole(user, "admin")).isTrue();
+        assertThat(identityManager.hasRole(user, new TestRole("admin", null, null))).isTrue();
+        assertThat(identityManager.hasRole(user, "admin", scope)).isTrue();
+        assertThat(identityManager.hasRole(user, "editor")).isFalse();
+
+        loggedOutEvent.fire(new IdentityStoreEvent(user));
+    }
+
+
+    @Test
+    public void testHasRoleThroughCyclicRoleGroup() {
+        final TestUser user = new TestUser();
+        final TestRole admin = new TestRole("admin", null, null);
+        final TestRole editor = new TestRole("editor", null, null);
+        admin.roleGroup.add(editor);
+        editor.roleGroup.add(admin);
+        user.roles.add(admin);
+
+        loggedInEvent.fire(new IdentityStoreEvent(user));
+
+        assertThat(identityManager.hasRole(user, "editor")).isTrue();
+        assertThat(identityManager.hasRole(user, "viewer")).isFalse();
+
+        loggedOutEvent.fire(new IdentityStoreEvent(user));
+    }
+
+
+    @Test
+    public void testHasRoleRebuiltAfterGrant() {
+        final TestUser user = new TestUser();
+        loggedInEvent.fire(new IdentityStoreEvent(user));
+
+        assertThat(identityManager.hasRole(user, "admin")).isFalse();
+        final TestRole admin = new TestRole("admin", null, null);
+        user.roles.add(admin);
+        identityManager.grantRole(user, admin);
+        assertThat(identityManager.hasRole(user, "admin")).isTrue();
+
+        loggedOutEvent.fire(new IdentityStoreEvent(user));
+    }
+
+
     @Produces
     public IdentityStoreConfiguration configuration() {
         final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
@@ -202,10 +334,13 @@ public class IdentityManagerTest {
         private String scope;
 
         @RoleScopeClass
-        private String scopeClass;
+        private Object scopeClass;
+
+        @RoleGroup
+        private Set<TestRole> roleGroup = new HashSet<TestRole>();
 
 
-        public TestRole(final String name, final String scope, final String scopeClass) {
+        public TestRole(final String name, final String scope, final Object scopeClass) {
             this.name = name;
             this.scope = scope;
             this.scopeClass = scopeClass;
@@ -232,12 +367,12 @@ public class IdentityManagerTest {
         }
 
 
-        public String getScopeClass() {
+        public Object getScopeClass() {
             return scopeClass;
         }
 
 
-        public void setScopeClass(final String scopeClass) {
+        public void setScopeClass(final Object scopeClass) {
             this.scopeClass = scopeClass;
         }
     }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.metrics.JmxSecurityMetrics;
+import nz.co.nomadconsulting.simplesecurity.util.BinTools;
+import nz.co.nomadconsulting.simplesecurity.util.PasswordUtils;
+import nz.co.nomadconsulting.simplesecurity.util.StoredPassword;
+
+import java.security.GeneralSecurityException;
+import java.util.Set;
+
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.jglue.cdiunit.AdditionalClasses;
+import org.jglue.cdiunit.CdiRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+
+
+/**
+ * Authentication against credentials held by the {@link UserCache}.
+ */
+@RunWith(CdiRunner.class)
+@AdditionalClasses(JmxSecurityMetrics.class)
+public class JpaIdentityStoreCacheTest {
+
+    @Inject
+    private JpaIdentityStore store;
+
+    @Inject
+    private PasswordUtils passwordUtils;
+
+    @Produces
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private Query query;
+
+    private TestUser user;
+
+
+    @Before
+    public void setUp() throws Exception {
+        when(entityManager.getEntityManagerFactory()).thenThrow(new IllegalStateException());
+        when(entityManager.createQuery(anyString())).thenReturn(query);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        user = new TestUser();
+        user.username = "craig";
+        user.enabled = true;
+        setPassword("v0yager1");
+        when(query.getSingleResult()).thenReturn(user);
+    }
+
+
+    @Test
+    public void testLoginAfterPasswordChangedElsewhere() throws Exception {
+        assertThat(store.authenticate("craig", "v0yager1")).isTrue();
+        setPassword("n3wpassword");
+
+        assertThat(store.authenticate("craig", "n3wpassword")).isTrue();
+        assertThat(store.authenticate("craig", "v0yager1")).isFalse();
+    }
+
+
+    @Test
+    public void testLoginAfterUserEnabledElsewhere() {
+        user.enabled = false;
+        assertThat(store.authenticate("craig", "v0yager1")).isFalse();
+        user.enabled = true;
+
+        assertThat(store.authenticate("craig", "v0yager1")).isTrue();
+    }
+
+
+    @Test
+    public void testAsyncLoginAfterPasswordChangedElsewhere() throws Exception {
+        assertThat(store.authenticateAsync("craig", "v0yager1").get()).isTrue();
+        setPassword("n3wpassword");
+
+        assertThat(store.authenticateAsync("craig", "n3wpassword").get()).isTrue();
+    }
+
+
+    @Test
+    public void testWrongPasswordReadsUserOnceMore() {
+        assertThat(store.authenticate("craig", "v0yager1")).isTrue();
+        assertThat(store.authenticate("craig", "wrong")).isFalse();
+
+        // loaded, found again to log in, then reloaded once when the cached credentials refused the wrong password
+        verify(query, times(3)).getSingleResult();
+    }
+
+
+    private void setPassword(final String password) throws GeneralSecurityException {
+        final byte[] salt = passwordUtils.generateRandomSalt();
+        user.salt = BinTools.bin2hex(salt);
+        user.password = new StoredPassword(PasswordUtils.SHA256, PasswordUtils.MINIMUM_ITERATIONS, passwordUtils.derivePasswordKey(
+                PasswordUtils.SHA256, password.toCharArray(), salt, PasswordUtils.MINIMUM_ITERATIONS)).toString();
+    }
+
+
+    @Produces
+    public IdentityStoreConfiguration configuration() {
+        final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
+        config.setUserClass(TestUser.class);
+        config.setRoleClass(JpaIdentityStoreTest.TestRole.class);
+        config.setPasswordHashIterations(PasswordUtils.MINIMUM_ITERATIONS);
+        config.setUserCacheSize(10);
+        return config;
+    }
+
+    public static class TestUser {
+        @Username
+        private String username;
+
+        @PasswordHash
+        private String password;
+
+        @PasswordSalt
+        private String salt;
+
+        @UserEnabled
+        private boolean enabled;
+
+        @Roles
+        private Set<JpaIdentityStoreTest.TestRole> roles;
+    }
+}
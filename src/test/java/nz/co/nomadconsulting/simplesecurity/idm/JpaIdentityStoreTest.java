@@ -0,0 +1,319 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+import nz.co.nomadconsulting.simplesecurity.authorisation.JpaPermissionStore;
+import nz.co.nomadconsulting.simplesecurity.authorisation.RoleName;
+import nz.co.nomadconsulting.simplesecurity.metrics.JmxSecurityMetrics;
+import nz.co.nomadconsulting.simplesecurity.util.BinTools;
+import nz.co.nomadconsulting.simplesecurity.util.PasswordUtils;
+import nz.co.nomadconsulting.simplesecurity.util.StoredPassword;
+
+import java.security.GeneralSecurityException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+
+import org.jglue.cdiunit.AdditionalClasses;
+import org.jglue.cdiunit.CdiRunner;
+import org.jglue.cdiunit.ProducesAlternative;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+
+
+@RunWith(CdiRunner.class)
+@AdditionalClasses(JmxSecurityMetrics.class)
+public class JpaIdentityStoreTest {
+
+    @Inject
+    private JpaIdentityStore store;
+
+    @Produces
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private Query query;
+
+    @Produces
+    @ProducesAlternative
+    private final PasswordUtils passwordUtils = new PasswordUtils() {
+
+        @Override
+        public byte[] derivePasswordKey(final String algorithm, final char[] password, final byte[] salt, final int iterations)
+                throws GeneralSecurityException {
+            if ("fail".equals(new String(password))) {
+                throw new GeneralSecurityException("Could not hash");
+            }
+            return super.derivePasswordKey(algorithm, password, salt, iterations);
+        }
+    };
+
+    private static final List<UsersCreatedEvent> events = new ArrayList<>();
+
+
+    @Before
+    public void setUp() {
+        events.clear();
+        when(entityManager.getEntityManagerFactory()).thenThrow(new IllegalStateException());
+        when(entityManager.createQuery(anyString())).thenReturn(query);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        when(query.getResultList()).thenReturn(new ArrayList<Object>(Arrays.asList("existing")));
+    }
+
+
+    @Test
+    public void testCreateUsersSkipsExisting() {
+        final Map<String, String> users = new LinkedHashMap<>();
+        users.put("craig", "v0yager1");
+        users.put("existing", "v0yager1");
+        users.put("disabled", null);
+
+        final CreateUsersResult result = store.createUsers(users, null);
+
+        assertThat(result.getCreated()).containsExactly("craig", "disabled");
+        assertThat(result.getFailures()).containsOnlyKeys("existing");
+        verify(entityManager, times(2)).persist(any());
+        final TestUser disabled = events.get(1).<TestUser> getUsers().get(0);
+        assertThat(disabled.enabled).isFalse();
+        assertThat(disabled.password).isNull();
+    }
+
+
+    @Test
+    public void testCreateUsersReportsHashFailures() {
+        final Map<String, String> users = new LinkedHashMap<>();
+        users.put("craig", "v0yager1");
+        users.put("broken", "fail");
+
+        final CreateUsersResult result = store.createUsers(users, null);
+
+        assertThat(result.getCreated()).containsExactly("craig");
+        assertThat(result.getFailures()).containsOnlyKeys("broken");
+        verify(entityManager, times(1)).persist(any());
+    }
+
+
+    @Test
+    public void testCreateUsersFiresEventPerBatch() {
+        final Map<String, String> users = new LinkedHashMap<>();
+        users.put("one", "v0yager1");
+        users.put("two", "v0yager1");
+        users.put("three", "v0yager1");
+        final List<Integer> processed = new ArrayList<>();
+
+        store.createUsers(users, new CreateUsersListener() {
+
+            @Override
+            public void batchCompleted(final int count, final int total) {
+                processed.add(count);
+            }
+        });
+
+        assertThat(events).hasSize(2);
+        assertThat(events.get(0).getUsers()).hasSize(2);
+        assertThat(events.get(1).getUsers()).hasSize(1);
+        assertThat(processed).containsExactly(2, 3);
+        verify(entityManager, times(2)).flush();
+        verify(entityManager, times(2)).clear();
+    }
+
+
+    @Test
+    public void testFindExistingUsernamesSplitsLargeBatches() {
+        final List<Map.Entry<String, String>> batch = new ArrayList<>();
+        for (int i = 0; i < 2 * JpaPermissionStore.MAX_TARGETS_PER_QUERY + 1; i++) {
+            batch.add(new AbstractMap.SimpleEntry<>("user" + i, "v0yager1"));
+        }
+
+        assertThat(store.findExistingUsernames(batch)).containsOnly("existing");
+        verify(query, times(3)).setParameter(eq("usernames"), any());
+    }
+
+
+    @Test
+    public void testCreateUsersThrowsWhenPersistFails() {
+        doThrow(new PersistenceException()).when(entityManager).persist(any());
+        final Map<String, String> users = new LinkedHashMap<>();
+        users.put("craig", "v0yager1");
+
+        try {
+            store.createUsers(users, null);
+            fail("Expected IdentityManagementException");
+        }
+        catch (final IdentityManagementException e) {
+            assertThat(events).isEmpty();
+        }
+    }
+
+
+    @Test
+    public void testOutdatedHashIsNotMergedOutsideTransaction() throws Exception {
+        when(query.getSingleResult()).thenReturn(userHashedWith(PasswordUtils.SHA1, "v0yager1"));
+
+        assertThat(store.authenticate("craig", "v0yager1")).isTrue();
+        verify(entityManager, never()).merge(any());
+    }
+
+
+    @Test
+    public void testOutdatedHashIsMergedWithinTransaction() throws Exception {
+        final TestUser user = userHashedWith(PasswordUtils.SHA1, "v0yager1");
+        when(query.getSingleResult()).thenReturn(user);
+        when(entityManager.isJoinedToTransaction()).thenReturn(true);
+
+        assertThat(store.authenticate("craig", "v0yager1")).isTrue();
+        verify(entityManager).merge(user);
+        verify(entityManager).flush();
+        assertThat(user.password).startsWith(PasswordUtils.SHA256);
+    }
+
+
+    @Test
+    public void testFailedRehashFlushIsLogged() throws Exception {
+        when(query.getSingleResult()).thenReturn(userHashedWith(PasswordUtils.SHA1, "v0yager1"));
+        when(entityManager.isJoinedToTransaction()).thenReturn(true);
+        doThrow(new PersistenceException("value too long")).when(entityManager).flush();
+
+        assertThat(store.authenticate("craig", "v0yager1")).isTrue();
+    }
+
+
+    @Test
+    public void testAuthenticateLooksUpUserOnceWithoutCache() throws Exception {
+        when(query.getSingleResult()).thenReturn(userHashedWith(PasswordUtils.SHA256, "v0yager1"));
+
+        assertThat(store.authenticate("craig", "v0yager1")).isTrue();
+        verify(query, times(1)).getSingleResult();
+    }
+
+
+    @Test
+    public void testLoginRefusedWhenUserChangedAfterCredentialsRead() throws Exception {
+        final TestUser user = userHashedWith(PasswordUtils.SHA256, "v0yager1");
+        when(query.getSingleResult()).thenReturn(user);
+
+        final Future<Boolean> disabled = store.authenticateAsync("craig", "v0yager1");
+        user.enabled = false;
+        assertThat(disabled.get()).isFalse();
+
+        user.enabled = true;
+        final Future<Boolean> changed = store.authenticateAsync("craig", "v0yager1");
+        user.password = userHashedWith(PasswordUtils.SHA256, "n3wpassword").password;
+        assertThat(changed.get()).isFalse();
+    }
+
+
+    @Test
+    public void testGetIdentifierOfProxy() {
+        final EntityManagerFactory factory = mock(EntityManagerFactory.class);
+        final PersistenceUnitUtil persistenceUnitUtil = mock(PersistenceUnitUtil.class);
+        doReturn(factory).when(entityManager).getEntityManagerFactory();
+        when(factory.getPersistenceUnitUtil()).thenReturn(persistenceUnitUtil);
+        final TestUser proxy = new TestUserProxy();
+        when(persistenceUnitUtil.getIdentifier(proxy)).thenReturn(7L);
+        when(persistenceUnitUtil.getIdentifier("plain")).thenThrow(new IllegalArgumentException("Not an entity"));
+
+        assertThat(store.getIdentifier(proxy)).isEqualTo("7");
+        assertThat(store.getIdentifier("plain")).isEqualTo("plain");
+    }
+
+
+    private TestUser userHashedWith(final String algorithm, final String password) throws GeneralSecurityException {
+        final byte[] salt = passwordUtils.generateRandomSalt();
+        final TestUser user = new TestUser();
+        user.username = "craig";
+        user.enabled = true;
+        user.salt = BinTools.bin2hex(salt);
+        user.password = new StoredPassword(algorithm, PasswordUtils.MINIMUM_ITERATIONS, passwordUtils.derivePasswordKey(algorithm,
+                password.toCharArray(), salt, PasswordUtils.MINIMUM_ITERATIONS)).toString();
+        return user;
+    }
+
+
+    public void usersCreatedEventListener(@Observes final UsersCreatedEvent event) {
+        events.add(event);
+    }
+
+
+    @Produces
+    public IdentityStoreConfiguration configuration() {
+        final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
+        config.setUserClass(TestUser.class);
+        config.setRoleClass(TestRole.class);
+        config.setPasswordHashIterations(PasswordUtils.MINIMUM_ITERATIONS);
+        config.setCreateUsersBatchSize(2);
+        return config;
+    }
+
+    public static class TestUser {
+        @Username
+        private String username;
+
+        @PasswordHash
+        private String password;
+
+        @PasswordSalt
+        private String salt;
+
+        @UserEnabled
+        private boolean enabled;
+
+        @Roles
+        private Set<TestRole> roles;
+    }
+
+    /**
+     * Stands in for a lazy loading proxy, a generated subclass of the entity whose own fields are never set.
+     */
+    public static class TestUserProxy extends TestUser {
+    }
+
+    static class TestRole {
+        @RoleName
+        private String name;
+    }
+}
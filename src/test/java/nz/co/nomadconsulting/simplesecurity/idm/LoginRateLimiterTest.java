@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+
+import javax.enterprise.event.Event;
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+
+import org.jglue.cdiunit.CdiRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+@RunWith(CdiRunner.class)
+public class LoginRateLimiterTest {
+
+    @Inject
+    private LoginRateLimiter rateLimiter;
+
+    @Inject
+    private Event<LoginFailedEvent> loginFailedEvent;
+
+
+    @Test
+    public void testThrottlesUsernameAfterFailures() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(rateLimiter.isThrottled("craig", null)).isFalse();
+            loginFailedEvent.fire(new LoginFailedEvent("craig", null, false));
+        }
+        assertThat(rateLimiter.isThrottled("craig", null)).isTrue();
+        assertThat(rateLimiter.isThrottled("someoneelse", null)).isFalse();
+    }
+
+
+    @Test
+    public void testThrottlesSourceAcrossUsernames() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(rateLimiter.isThrottled("user" + i, "10.0.0.1")).isFalse();
+            loginFailedEvent.fire(new LoginFailedEvent("user" + i, "10.0.0.1", false));
+        }
+        assertThat(rateLimiter.isThrottled("another", "10.0.0.1")).isTrue();
+        assertThat(rateLimiter.isThrottled("another", "10.0.0.2")).isFalse();
+    }
+
+
+    @Test
+    public void testThrottledAttemptsDoNotCount() {
+        for (int i = 0; i < 10; i++) {
+            loginFailedEvent.fire(new LoginFailedEvent("craig", null, true));
+        }
+        assertThat(rateLimiter.isThrottled("craig", null)).isFalse();
+    }
+
+
+    @Test
+    public void testSuccessfulLoginRefillsUsername() {
+        for (int i = 0; i < 3; i++) {
+            loginFailedEvent.fire(new LoginFailedEvent("craig", "10.0.0.1", false));
+        }
+        assertThat(rateLimiter.isThrottled("craig", null)).isTrue();
+        rateLimiter.loginSucceeded("craig");
+        assertThat(rateLimiter.isThrottled("craig", null)).isFalse();
+        for (int i = 0; i < 2; i++) {
+            loginFailedEvent.fire(new LoginFailedEvent("other", "10.0.0.1", false));
+        }
+        assertThat(rateLimiter.isThrottled(null, "10.0.0.1")).isTrue();
+    }
+
+
+    @Test
+    public void testRefills() {
+        final LoginRateLimiter.Buckets buckets = new LoginRateLimiter.Buckets(64, 1000, 2);
+        final long now = System.nanoTime();
+        buckets.take("craig", now);
+        buckets.take("craig", now);
+        assertThat(buckets.isEmpty("craig", now)).isTrue();
+        assertThat(buckets.isEmpty("craig", now + 999)).isTrue();
+        assertThat(buckets.isEmpty("craig", now + 1000)).isFalse();
+    }
+
+
+    @Test
+    public void testSprayDoesNotThrottleOthers() {
+        final LoginRateLimiter.Buckets buckets = new LoginRateLimiter.Buckets(8, 1000, 1);
+        final long now = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            buckets.take("user" + i, now);
+        }
+        assertThat(buckets.isEmpty("craig", now)).isFalse();
+        assertThat(buckets.size()).isLessThanOrEqualTo(8);
+    }
+
+
+    @Test
+    public void testSprayEvictsSingleFailuresFirst() {
+        final LoginRateLimiter.Buckets buckets = new LoginRateLimiter.Buckets(8, 1000, 3);
+        final long now = System.nanoTime();
+        buckets.take("craig", now);
+        buckets.take("craig", now);
+        for (int i = 0; i < 1000; i++) {
+            buckets.take("user" + i, now);
+        }
+        assertThat(buckets.isEmpty("craig", now)).isFalse();
+        buckets.take("craig", now);
+        assertThat(buckets.isEmpty("craig", now)).isTrue();
+    }
+
+
+    @Produces
+    public IdentityStoreConfiguration getConfiguration() {
+        final IdentityStoreConfiguration configuration = new IdentityStoreConfiguration();
+        configuration.setLoginAttemptsPerUsername(3);
+        configuration.setLoginAttemptsPerSource(5);
+        return configuration;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+
+import org.jglue.cdiunit.CdiRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+@RunWith(CdiRunner.class)
+public class PasswordHashExecutorTest {
+
+    @Inject
+    private PasswordHashExecutor executor;
+
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<Boolean> running = executor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                started.countDown();
+                release.await();
+                return true;
+            }
+        });
+        started.await();
+        final Future<Boolean> queued = executor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return false;
+            }
+        });
+        assertThat(executor.getQueuedCount()).isEqualTo(1);
+
+        try {
+            executor.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() {
+                    return false;
+                }
+            });
+            fail("Expected the attempt to be rejected");
+        }
+        catch (final IdentityManagementException e) {
+            // expected
+        }
+        finally {
+            release.countDown();
+        }
+
+        assertThat(running.get()).isTrue();
+        assertThat(queued.get()).isFalse();
+    }
+
+
+    @Produces
+    public IdentityStoreConfiguration configuration() {
+        final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
+        config.setHashingThreads(1);
+        config.setHashingQueueSize(1);
+        config.setHashingQueueTimeout(10);
+        return config;
+    }
+}
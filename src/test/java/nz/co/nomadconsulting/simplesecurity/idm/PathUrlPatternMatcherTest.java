@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+
+public class PathUrlPatternMatcherTest {
+
+    @Test
+    public void testExact() {
+        final PathUrlPatternMatcher matcher = new PathUrlPatternMatcher("/login.xhtml", "/");
+
+        assertThat(matcher.matches("/login.xhtml")).isTrue();
+        assertThat(matcher.matches("/")).isTrue();
+        assertThat(matcher.matches("/login.xhtml/other")).isFalse();
+        assertThat(matcher.matches("/secure/login.xhtml")).isFalse();
+    }
+
+
+    @Test
+    public void testPrefix() {
+        final PathUrlPatternMatcher matcher = new PathUrlPatternMatcher("/public/*", "/javax.faces.resource/*");
+
+        assertThat(matcher.matches("/public")).isTrue();
+        assertThat(matcher.matches("/public/")).isTrue();
+        assertThat(matcher.matches("/public/help/index.xhtml")).isTrue();
+        assertThat(matcher.matches("/javax.faces.resource/jsf.js")).isTrue();
+        assertThat(matcher.matches("/publicity.xhtml")).isFalse();
+        assertThat(matcher.matches("/secure/public/index.xhtml")).isFalse();
+    }
+
+
+    @Test
+    public void testExtension() {
+        final PathUrlPatternMatcher matcher = new PathUrlPatternMatcher("*.js", "*.css");
+
+        assertThat(matcher.matches("/scripts/app.js")).isTrue();
+        assertThat(matcher.matches("/site.css")).isTrue();
+        assertThat(matcher.matches("/app.jsx")).isFalse();
+        assertThat(matcher.matches("/scripts.js/index.xhtml")).isFalse();
+    }
+
+
+    @Test
+    public void testEverything() {
+        assertThat(new PathUrlPatternMatcher("/*").matches("/secure/index.xhtml")).isTrue();
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedPattern() {
+        new PathUrlPatternMatcher("/public/*.xhtml");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+
+public class RegexUrlPatternMatcherTest {
+
+    @Test
+    public void testLiteral() {
+        final RegexUrlPatternMatcher matcher = new RegexUrlPatternMatcher("/login\\.xhtml");
+
+        assertThat(matcher.matches("/login.xhtml")).isTrue();
+        assertThat(matcher.matches("/loginxxhtml")).isFalse();
+        assertThat(matcher.matches("/login.xhtml/other")).isFalse();
+    }
+
+
+    @Test
+    public void testPrefixAndSuffix() {
+        final RegexUrlPatternMatcher matcher = new RegexUrlPatternMatcher("/javax\\.faces\\.resource/.*");
+        matcher.addPattern(".*\\.css");
+
+        assertThat(matcher.matches("/javax.faces.resource/jsf.js")).isTrue();
+        assertThat(matcher.matches("/javax.faces.resource/")).isTrue();
+        assertThat(matcher.matches("/javaxxfaces.resource/jsf.js")).isFalse();
+        assertThat(matcher.matches("/theme/site.css")).isTrue();
+        assertThat(matcher.matches("/theme/site.cssx")).isFalse();
+        assertThat(matcher.matches("/theme/\nsite.css")).isFalse();
+    }
+
+
+    @Test
+    public void testCombinedRegexes() {
+        final RegexUrlPatternMatcher matcher = new RegexUrlPatternMatcher("/public/[a-z]+\\.xhtml");
+        matcher.addPattern("(?i)/HELP/.*");
+        matcher.addPattern("/(a|b)/\\1");
+        matcher.addPattern("/(?<id>[0-9]+)\\.png");
+        matcher.addPattern("/img/(?<id>[0-9]+)\\.gif");
+
+        assertThat(matcher.matches("/public/about.xhtml")).isTrue();
+        assertThat(matcher.matches("/public/About.xhtml")).isFalse();
+        assertThat(matcher.matches("/help/index.xhtml")).isTrue();
+        assertThat(matcher.matches("/a/a")).isTrue();
+        assertThat(matcher.matches("/a/b")).isFalse();
+        assertThat(matcher.matches("/12.png")).isTrue();
+        assertThat(matcher.matches("/img/12.gif")).isTrue();
+        assertThat(matcher.matches("/secure/index.xhtml")).isFalse();
+    }
+}
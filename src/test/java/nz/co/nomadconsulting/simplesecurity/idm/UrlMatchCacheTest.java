@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+
+public class UrlMatchCacheTest {
+
+    @Test
+    public void testRemembers() {
+        final UrlMatchCache cache = new UrlMatchCache(10);
+        assertThat(cache.get("/public/style.css")).isNull();
+
+        cache.put("/public/style.css", true);
+        cache.put("/secure/index.xhtml", false);
+
+        assertThat(cache.get("/public/style.css")).isTrue();
+        assertThat(cache.get("/secure/index.xhtml")).isFalse();
+    }
+
+
+    @Test
+    public void testBounded() {
+        final UrlMatchCache cache = new UrlMatchCache(10);
+        for (int i = 0; i < 100; i++) {
+            cache.put("/page" + i, true);
+        }
+        assertThat(cache.size()).isEqualTo(10);
+        assertThat(cache.get("/page99")).isTrue();
+    }
+
+
+    @Test
+    public void testSparesRecentlyRequested() {
+        final UrlMatchCache cache = new UrlMatchCache(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put("/page" + i, true);
+        }
+        for (int i = 0; i < 20; i++) {
+            cache.get("/page0");
+            cache.put("/other" + i, true);
+        }
+        assertThat(cache.get("/page0")).isTrue();
+    }
+
+
+    @Test
+    public void testClear() {
+        final UrlMatchCache cache = new UrlMatchCache(10);
+        cache.put("/page", true);
+        cache.clear();
+
+        assertThat(cache.get("/page")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.idm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import nz.co.nomadconsulting.simplesecurity.IdentityStoreConfiguration;
+
+import javax.enterprise.event.Event;
+import javax.enterprise.inject.Produces;
+import javax.inject.Inject;
+
+import org.jglue.cdiunit.CdiRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+@RunWith(CdiRunner.class)
+public class UserCacheTest {
+
+    @Inject
+    private UserCache cache;
+
+    @Inject
+    @UserDeleted
+    private Event<IdentityStoreEvent> userDeletedEvent;
+
+    @Inject
+    @UserUpdated
+    private Event<IdentityStoreEvent> userUpdatedEvent;
+
+
+    @Test
+    public void testGetAndPut() {
+        final UserCache.Credentials credentials = credentials();
+
+        assertThat(cache.isEnabled()).isTrue();
+        assertThat(cache.get("craig")).isNull();
+        cache.put("craig", credentials);
+        assertThat(cache.get("craig")).isSameAs(credentials);
+    }
+
+
+    @Test
+    public void testCopiesBinaryCredentials() {
+        final byte[] salt = { 1, 2, 3 };
+        final byte[] hash = { 4, 5, 6 };
+        final UserCache.Credentials credentials = new UserCache.Credentials(true, salt, hash);
+        salt[0] = 0;
+        hash[0] = 0;
+
+        assertThat((byte[]) credentials.getSalt()).isEqualTo(new byte[] { 1, 2, 3 });
+        assertThat((byte[]) credentials.getStoredHash()).isEqualTo(new byte[] { 4, 5, 6 });
+    }
+
+
+    @Test
+    public void testBounded() {
+        cache.put("a", credentials());
+        cache.put("b", credentials());
+        cache.put("c", credentials());
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("c")).isNotNull();
+    }
+
+
+    @Test
+    public void testSparesRecentlyUsed() {
+        cache.put("a", credentials());
+        cache.put("b", credentials());
+        for (int i = 0; i < 10; i++) {
+            cache.get("a");
+            cache.put("other" + i, credentials());
+        }
+
+        assertThat(cache.get("a")).isNotNull();
+        assertThat(cache.get("b")).isNull();
+    }
+
+
+    @Test
+    public void testInvalidatedByEvent() {
+        cache.put("craig", credentials());
+
+        userDeletedEvent.fire(new IdentityStoreEvent(new TestUser("craig")));
+
+        assertThat(cache.get("craig")).isNull();
+    }
+
+
+    @Test
+    public void testInvalidatedByUpdatedEvent() {
+        cache.put("craig", credentials());
+
+        userUpdatedEvent.fire(new IdentityStoreEvent(new TestUser("craig")));
+
+        assertThat(cache.get("craig")).isNull();
+    }
+
+
+    private static UserCache.Credentials credentials() {
+        return new UserCache.Credentials(true, "00", "PBKDF2WithHmacSHA1:1024:00");
+    }
+
+
+    @Produces
+    public IdentityStoreConfiguration configuration() {
+        final IdentityStoreConfiguration config = new IdentityStoreConfiguration();
+        config.setUserClass(TestUser.class);
+        config.setUserCacheSize(2);
+        return config;
+    }
+
+    static class TestUser {
+        @Username
+        private String username;
+
+
+        public TestUser(final String username) {
+            this.username = username;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics.Cache;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics.FilterDecision;
+import nz.co.nomadconsulting.simplesecurity.metrics.SecurityMetrics.Interceptor;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+
+public class JmxSecurityMetricsTest {
+
+    @Test
+    public void testRecord() {
+        final JmxSecurityMetrics metrics = new JmxSecurityMetrics();
+        metrics.recordAuthentication(true, 100);
+        metrics.recordAuthentication(false, 300);
+        metrics.recordPermissionCheck("store", 4, 1);
+        metrics.recordPermissionCheck(1L, 1, 1);
+        metrics.recordPermissionStoreLatency("store", 600);
+        metrics.recordPermissionStoreLatency("store", 200);
+        metrics.recordPermissionResolution(1000);
+        metrics.recordPermissionResolution(3000);
+        metrics.recordCacheAccess(Cache.USER, true);
+        metrics.recordCacheAccess(Cache.USER, true);
+        metrics.recordCacheAccess(Cache.USER, true);
+        metrics.recordCacheAccess(Cache.USER, false);
+        metrics.recordFilterDecision(FilterDecision.REJECTED);
+
+        assertThat(metrics.getAuthenticationAttempts()).isEqualTo(2);
+        assertThat(metrics.getAuthenticationFailures()).isEqualTo(1);
+        assertThat(metrics.getAuthenticationMeanNanos()).isEqualTo(200);
+        assertThat(metrics.getPermissionChecks()).isEqualTo(5);
+        assertThat(metrics.getPermissionChecksGranted()).isEqualTo(2);
+        assertThat(metrics.getPermissionCheckMeanNanos()).isEqualTo(2000);
+        assertThat(metrics.getPermissionStores()).hasSize(2);
+        assertThat(metrics.getPermissionStores()).contains("java.lang.String checks=4 granted=1 meanNanos=400 99thPercentileNanos=1024");
+        assertThat(metrics.getUserCacheHitRatio()).isEqualTo(0.75);
+        assertThat(metrics.getDecisionCacheHitRatio()).isEqualTo(0);
+        assertThat(metrics.getRejectedRequests()).isEqualTo(1);
+
+        metrics.reset();
+        assertThat(metrics.getAuthenticationAttempts()).isEqualTo(0);
+        assertThat(metrics.getPermissionStores()).isEmpty();
+    }
+
+
+    @Test
+    public void testReportsStoreBehindProxy() {
+        final JmxSecurityMetrics metrics = new JmxSecurityMetrics();
+        metrics.recordPermissionCheck(new TestStore$Proxy$_$$_WeldClientProxy(), 2, 1);
+        metrics.recordPermissionCheck(new TestStore(), 1, 0);
+
+        assertThat(metrics.getPermissionStores()).containsExactly(
+                TestStore.class.getName() + " checks=3 granted=1 meanNanos=0 99thPercentileNanos=0");
+    }
+
+
+    @Test
+    public void testRecordInterceptedCall() {
+        final JmxSecurityMetrics metrics = new JmxSecurityMetrics();
+        metrics.recordInterceptedCall(Interceptor.AUTHENTICATION, false, 100);
+        metrics.recordInterceptedCall(Interceptor.AUTHENTICATION, true, 300);
+        metrics.recordInterceptedCall(Interceptor.AUTHORISATION, true, 50);
+
+        assertThat(metrics.getAuthenticatedCalls()).isEqualTo(2);
+        assertThat(metrics.getAuthenticatedCallsRejected()).isEqualTo(1);
+        assertThat(metrics.getAuthenticatedCallMeanNanos()).isEqualTo(200);
+        assertThat(metrics.getAuthenticatedCall50thPercentileNanos()).isEqualTo(128);
+        assertThat(metrics.getAuthenticatedCall99thPercentileNanos()).isEqualTo(512);
+        assertThat(metrics.getAuthorisedCalls()).isEqualTo(1);
+        assertThat(metrics.getAuthorisedCallsRejected()).isEqualTo(1);
+
+        metrics.reset();
+        assertThat(metrics.getAuthenticatedCalls()).isEqualTo(0);
+        assertThat(metrics.getAuthorisedCallsRejected()).isEqualTo(0);
+    }
+
+
+    @Test
+    public void testDisabled() {
+        final JmxSecurityMetrics metrics = new JmxSecurityMetrics();
+        metrics.recordRoleCheck(true);
+        metrics.setEnabled(false);
+        assertThat(metrics.isEnabled()).isFalse();
+        metrics.recordRoleCheck(true);
+        metrics.recordRoleCheckLatency(50);
+        metrics.recordCacheAccess(Cache.EFFECTIVE_ROLES, true);
+        metrics.recordInterceptedCall(Interceptor.AUTHORISATION, false, 50);
+
+        assertThat(metrics.getRoleChecks()).isEqualTo(1);
+        assertThat(metrics.getRoleCheckMeanNanos()).isEqualTo(0);
+        assertThat(metrics.getEffectiveRolesCacheHitRatio()).isEqualTo(0);
+        assertThat(metrics.getAuthorisedCalls()).isEqualTo(0);
+    }
+
+
+    @Test
+    public void testRegister() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(JmxSecurityMetrics.OBJECT_NAME);
+        final JmxSecurityMetrics metrics = new JmxSecurityMetrics();
+        metrics.register();
+        assertThat(metrics.getObjectName()).isEqualTo(name);
+        try {
+            metrics.recordRoleCheck(true);
+            assertThat(server.getAttribute(name, "RoleChecksGranted")).isEqualTo(1L);
+        }
+        finally {
+            metrics.unregister();
+        }
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+
+
+    @Test
+    public void testRegisterPerApplication() throws Exception {
+        final JmxSecurityMetrics shop = new ApplicationMetrics("shop");
+        final JmxSecurityMetrics admin = new ApplicationMetrics("admin");
+        shop.register();
+        admin.register();
+        try {
+            assertThat(shop.getObjectName()).isEqualTo(new ObjectName(JmxSecurityMetrics.OBJECT_NAME + ",application=\"shop\""));
+            assertThat(admin.getObjectName()).isEqualTo(new ObjectName(JmxSecurityMetrics.OBJECT_NAME + ",application=\"admin\""));
+        }
+        finally {
+            shop.unregister();
+            admin.unregister();
+        }
+    }
+
+    private static class ApplicationMetrics extends JmxSecurityMetrics {
+
+        private final String application;
+
+
+        ApplicationMetrics(final String application) {
+            this.application = application;
+        }
+
+
+        @Override
+        protected String getApplicationName() {
+            return application;
+        }
+    }
+
+    private static class TestStore {
+    }
+
+    /**
+     * Named like the client proxy Weld generates for a CDI managed store.
+     */
+    private static class TestStore$Proxy$_$$_WeldClientProxy extends TestStore {
+    }
+}
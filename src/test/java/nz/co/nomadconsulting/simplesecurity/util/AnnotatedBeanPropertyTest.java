@@ -0,0 +1,93 @@
+package nz.co.nomadconsulting.simplesecurity.util;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import nz.co.nomadconsulting.simplesecurity.idm.UserEnabled;
+import nz.co.nomadconsulting.simplesecurity.idm.Username;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import org.junit.Test;
+
+
+public class AnnotatedBeanPropertyTest {
+
+    @Test
+    public void testFieldProperty() {
+        final AnnotatedBeanProperty<Username> property = new AnnotatedBeanProperty<>(TestUser.class, Username.class);
+        final TestUser user = new TestUser();
+
+        assertThat(property.isSet()).isTrue();
+        assertThat(property.getName()).isEqualTo("username");
+        assertThat(property.getPropertyType()).isEqualTo(String.class);
+
+        property.setValue(user, "craig");
+        assertThat(user.username).isEqualTo("craig");
+        assertThat(property.<String> getValue(user)).isEqualTo("craig");
+    }
+
+
+    @Test
+    public void testPrimitiveFieldProperty() {
+        final AnnotatedBeanProperty<UserEnabled> property = new AnnotatedBeanProperty<>(TestUser.class, UserEnabled.class);
+        final TestUser user = new TestUser();
+
+        property.setValue(user, true);
+        assertThat(user.enabled).isTrue();
+        assertThat(property.<Boolean> getValue(user)).isTrue();
+    }
+
+
+    @Test
+    public void testMethodProperty() {
+        final AnnotatedBeanProperty<Email> property = new AnnotatedBeanProperty<>(TestUser.class, Email.class);
+        final TestUser user = new TestUser();
+
+        assertThat(property.isSet()).isTrue();
+        assertThat(property.getName()).isEqualTo("email");
+
+        property.setValue(user, "craig@example.com");
+        assertThat(user.getEmail()).isEqualTo("craig@example.com");
+        assertThat(property.<String> getValue(user)).isEqualTo("craig@example.com");
+    }
+
+
+    @Test
+    public void testUnsetProperty() {
+        final AnnotatedBeanProperty<Username> property = new AnnotatedBeanProperty<>(Object.class, Username.class);
+
+        assertThat(property.isSet()).isFalse();
+    }
+
+
+    @Target({ FIELD, METHOD })
+    @Retention(RUNTIME)
+    @interface Email {
+
+    }
+
+    static class TestUser {
+        @Username
+        private String username;
+
+        @UserEnabled
+        private boolean enabled;
+
+        private String email;
+
+
+        @Email
+        public String getEmail() {
+            return email;
+        }
+
+
+        public void setEmail(final String email) {
+            this.email = email;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+
+public class BinToolsTest {
+
+    private static final byte[] BYTES = { 0x00, 0x7F, (byte) 0x80, (byte) 0xAB, (byte) 0xFF };
+
+
+    @Test
+    public void testRoundTrip() {
+        assertThat(BinTools.bin2hex(BYTES)).isEqualTo("007F80ABFF");
+        assertThat(BinTools.hex2bin("007F80ABFF")).isEqualTo(BYTES);
+        assertThat(BinTools.hex2bin("007f80abff")).isEqualTo(BYTES);
+    }
+
+
+    @Test
+    public void testOddLengthHasLeadingZero() {
+        assertThat(BinTools.hex2bin("ABC")).isEqualTo(new byte[] { 0x0A, (byte) 0xBC });
+        assertThat(BinTools.binLength("ABC")).isEqualTo(2);
+    }
+
+
+    @Test
+    public void testNullDecodesToEmpty() {
+        assertThat(BinTools.hex2bin((String) null)).isEmpty();
+    }
+
+
+    @Test
+    public void testWritesIntoBuffers() {
+        final char[] chars = new char[12];
+        assertThat(BinTools.bin2hex(BYTES, chars, 1)).isEqualTo(10);
+        assertThat(new String(chars, 1, 10)).isEqualTo("007F80ABFF");
+
+        final byte[] bytes = new byte[6];
+        assertThat(BinTools.hex2bin("007F80ABFF", bytes, 1)).isEqualTo(5);
+        assertThat(bytes).isEqualTo(new byte[] { 0, 0x00, 0x7F, (byte) 0x80, (byte) 0xAB, (byte) 0xFF });
+    }
+
+
+    @Test
+    public void testRejectsInvalidHex() {
+        try {
+            BinTools.hex2bin("00G0");
+            fail("Expected invalid hex to be rejected");
+        }
+        catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testHexEquals() {
+        assertThat(BinTools.hexEquals("007F80ABFF", BYTES)).isTrue();
+        assertThat(BinTools.hexEquals("007f80abff", BYTES)).isTrue();
+        assertThat(BinTools.hexEquals("007F80ABFE", BYTES)).isFalse();
+        assertThat(BinTools.hexEquals("007F80AB", BYTES)).isFalse();
+        assertThat(BinTools.hexEquals("007F80ABFF00", BYTES)).isFalse();
+        assertThat(BinTools.hexEquals("07F80ABFF", BYTES)).isFalse();
+        assertThat(BinTools.hexEquals("007F80ABG\u0100", BYTES)).isFalse();
+        assertThat(BinTools.hexEquals("", new byte[0])).isTrue();
+    }
+}
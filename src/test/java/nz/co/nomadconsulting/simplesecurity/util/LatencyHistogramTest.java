@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testRecord() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(1000);
+        histogram.record(1023);
+        histogram.record(1024);
+        histogram.record(Long.MAX_VALUE);
+
+        assertThat(histogram.getCount()).isEqualTo(5);
+        assertThat(histogram.getCount(0)).isEqualTo(1);
+        assertThat(histogram.getCount(10)).isEqualTo(2);
+        assertThat(histogram.getCount(11)).isEqualTo(1);
+        assertThat(histogram.getCount(LatencyHistogram.BUCKETS - 1)).isEqualTo(1);
+    }
+
+
+    @Test
+    public void testPercentile() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getPercentile(50)).isEqualTo(0);
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(1000000);
+
+        assertThat(histogram.getPercentile(50)).isEqualTo(128);
+        assertThat(histogram.getPercentile(99)).isEqualTo(128);
+        assertThat(histogram.getPercentile(100)).isEqualTo(1 << 20);
+
+        histogram.reset();
+        assertThat(histogram.getCount()).isEqualTo(0);
+    }
+}
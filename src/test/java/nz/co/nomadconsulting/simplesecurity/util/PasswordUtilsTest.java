@@ -3,6 +3,16 @@ package nz.co.nomadconsulting.simplesecurity.util;
 import nz.co.nomadconsulting.simplesecurity.util.BinTools;
 import nz.co.nomadconsulting.simplesecurity.util.PasswordUtils;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -22,4 +32,71 @@ public class PasswordUtilsTest {
         String password = passwordUtils.createPasswordKey("v0yager1".toCharArray(), generateRandomSalt, 1024);
         System.out.println("password:" + password + " hash:" + BinTools.bin2hex(generateRandomSalt) + " " + password.length() + " " + BinTools.bin2hex(generateRandomSalt).length());
     }
+
+
+    @Test
+    public void testSharedAcrossThreads() throws Exception {
+        final byte[] salt = passwordUtils.generateRandomSalt();
+        assertThat(passwordUtils.generateRandomSalt()).isNotEqualTo(salt);
+        final String expected = passwordUtils.createPasswordKey("v0yager1".toCharArray(), salt, 1024);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return passwordUtils.createPasswordKey("v0yager1".toCharArray(), salt, 1024);
+                    }
+                }));
+            }
+            for (final Future<String> result : results) {
+                assertThat(result.get()).isEqualTo(expected);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testAlgorithms() throws Exception {
+        final byte[] salt = passwordUtils.generateRandomSalt();
+        final String sha1 = passwordUtils.createPasswordKey(PasswordUtils.SHA1, "v0yager1".toCharArray(), salt, 1024);
+
+        assertThat(passwordUtils.createPasswordKey("v0yager1".toCharArray(), salt, 1024)).isEqualTo(sha1);
+        assertThat(sha1).hasSize(64);
+        assertThat(passwordUtils.createPasswordKey(PasswordUtils.SHA256, "v0yager1".toCharArray(), salt, 1024)).hasSize(64)
+                .isNotEqualTo(sha1);
+        assertThat(passwordUtils.createPasswordKey(PasswordUtils.SHA512, "v0yager1".toCharArray(), salt, 1024)).hasSize(128);
+        assertThat(passwordUtils.isSupported("PBKDF2WithHmacMD5")).isFalse();
+    }
+
+
+    @Test
+    public void testResolveAlgorithm() {
+        assertThat(PasswordUtils.resolveAlgorithm("PBKDF2WithHmacSHA512")).isEqualTo(PasswordUtils.SHA512);
+        assertThat(PasswordUtils.resolveAlgorithm("SHA-256")).isEqualTo(PasswordUtils.SHA256);
+        assertThat(PasswordUtils.resolveAlgorithm("sha1")).isEqualTo(PasswordUtils.SHA1);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResolveUnsupportedAlgorithm() {
+        PasswordUtils.resolveAlgorithm("md5");
+    }
+
+
+    @Test
+    public void testCalibrateIterations() throws Exception {
+        assertThat(passwordUtils.getCalibratedIterations(PasswordUtils.SHA256)).isEqualTo(0);
+
+        final int iterations = passwordUtils.calibrateIterations(PasswordUtils.SHA256, TimeUnit.MILLISECONDS.toNanos(20));
+
+        assertThat(iterations).isGreaterThanOrEqualTo(PasswordUtils.MINIMUM_ITERATIONS);
+        assertThat(passwordUtils.getCalibratedIterations(PasswordUtils.SHA256)).isEqualTo(iterations);
+        assertThat(passwordUtils.calibrateIterations(PasswordUtils.SHA256, 1)).isEqualTo(PasswordUtils.MINIMUM_ITERATIONS);
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Nomad Consulting Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.co.nomadconsulting.simplesecurity.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+
+public class StoredPasswordTest {
+
+    @Test
+    public void testParse() {
+        final StoredPassword stored = StoredPassword.parse("PBKDF2WithHmacSHA256:20000:ABCDEF", PasswordUtils.SHA1, 1024);
+
+        assertThat(stored.getAlgorithm()).isEqualTo(PasswordUtils.SHA256);
+        assertThat(stored.getIterations()).isEqualTo(20000);
+        assertThat(stored.getHash()).isEqualTo("ABCDEF");
+        assertThat(stored.toString()).isEqualTo("PBKDF2WithHmacSHA256:20000:ABCDEF");
+        assertThat(stored.isOutdated(PasswordUtils.SHA256, 20000)).isFalse();
+        assertThat(stored.isOutdated(PasswordUtils.SHA256, 40000)).isTrue();
+        assertThat(stored.isOutdated(PasswordUtils.SHA512, 20000)).isTrue();
+        assertThat(stored.isOutdated(PasswordUtils.SHA256, 18000, 22000)).isFalse();
+        assertThat(stored.isOutdated(PasswordUtils.SHA256, 21000, 23000)).isTrue();
+    }
+
+
+    @Test
+    public void testParseLegacy() {
+        final StoredPassword stored = StoredPassword.parse("ABCDEF", PasswordUtils.SHA1, 1024);
+
+        assertThat(stored.getAlgorithm()).isEqualTo(PasswordUtils.SHA1);
+        assertThat(stored.getIterations()).isEqualTo(1024);
+        assertThat(stored.getHash()).isEqualTo("ABCDEF");
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalid() {
+        StoredPassword.parse("PBKDF2WithHmacSHA256:many:ABCDEF", PasswordUtils.SHA1, 1024);
+    }
+
+
+    @Test
+    public void testBinaryForm() {
+        final byte[] hash = { 0x01, 0x23, (byte) 0xAB, (byte) 0xFF };
+        final byte[] value = new StoredPassword(PasswordUtils.SHA512, 20000, hash).toBytes();
+        assertThat(value).hasSize(10);
+
+        final StoredPassword stored = StoredPassword.parse(value);
+        assertThat(stored.getAlgorithm()).isEqualTo(PasswordUtils.SHA512);
+        assertThat(stored.getIterations()).isEqualTo(20000);
+        assertThat(stored.getHashBytes()).isEqualTo(hash);
+        assertThat(stored.getHash()).isEqualTo("0123ABFF");
+        assertThat(stored.matches(hash)).isTrue();
+        assertThat(stored.matches(new byte[] { 0x01, 0x23, (byte) 0xAB, (byte) 0xFE })).isFalse();
+        assertThat(stored.matches(new byte[] { 0x01, 0x23, (byte) 0xAB })).isFalse();
+    }
+
+
+    @Test
+    public void testTextConvertsToBinary() {
+        final StoredPassword stored = StoredPassword.parse(
+                StoredPassword.parse("PBKDF2WithHmacSHA256:20000:0123ABFF", PasswordUtils.SHA1, 1024).toBytes());
+        assertThat(stored.toString()).isEqualTo("PBKDF2WithHmacSHA256:20000:0123ABFF");
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsUnknownBinaryFormat() {
+        StoredPassword.parse(new byte[] { 9, 2, 0, 0, 0, 1, 0x42 });
+    }
+}